@@ -0,0 +1,28 @@
+package benchmark.jmh;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Scope;
+
+import transactionLib.Transaction;
+
+/**
+ * Aborts of the transactions a benchmark thread ran, reported by JMH next to the score.
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.EVENTS)
+public class Aborts {
+
+	public long aborts;
+
+	@Setup(Level.Iteration)
+	public void reset() {
+		aborts = 0;
+	}
+
+	void count(Transaction transaction) {
+		aborts += transaction.getAttempts() - 1;
+	}
+}
@@ -0,0 +1,117 @@
+package benchmark.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import transactionLib.Queue;
+import transactionLib.TXLibExceptions;
+import transactionLib.Transaction;
+
+/**
+ * Enqueue/dequeue pairs on a TDSL queue, as singletons and in transactions,
+ * and the commit of an empty transaction as a baseline.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(3)
+public class QueueBenchmark {
+
+	private static final Object VALUE = new Object();
+
+	/* The number of elements the queue starts with */
+	@Param({"1000"})
+	public int size;
+
+	/* The enqueue/dequeue pairs of a transaction */
+	@Param({"1", "10"})
+	public int batch;
+
+	private Queue queue;
+
+	@Setup(Level.Trial)
+	public void fill() {
+		queue = new Queue();
+		for (int i = 0; i < size; i++)
+			queue.enqueue(VALUE);
+	}
+
+	Object pair() {
+		queue.enqueue(VALUE);
+		try {
+			return queue.dequeue();
+		} catch (TXLibExceptions.QueueIsEmptyException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * A transaction of batch enqueues followed by batch dequeues, reused by its thread.
+	 */
+	@State(Scope.Thread)
+	public static class Pairs extends Transaction {
+
+		private QueueBenchmark bench;
+		public Object last;
+
+		@Setup(Level.Trial)
+		public void setup(QueueBenchmark bench) {
+			this.bench = bench;
+		}
+
+		@Override
+		public void execute() {
+			for (int i = 0; i < bench.batch; i++)
+				bench.queue.enqueue(VALUE);
+			try {
+				for (int i = 0; i < bench.batch; i++)
+					last = bench.queue.dequeue();
+			} catch (TXLibExceptions.QueueIsEmptyException e) {
+				last = null;
+			}
+		}
+	}
+
+	/**
+	 * A transaction that does nothing.
+	 */
+	@State(Scope.Thread)
+	public static class Empty extends Transaction {
+
+		@Override
+		public void execute() {
+		}
+	}
+
+	@Benchmark
+	public Object singleton() {
+		return pair();
+	}
+
+	@Benchmark
+	public Object transaction(Pairs pairs, Aborts aborts) {
+		pairs.run();
+		aborts.count(pairs);
+		return pairs.last;
+	}
+
+	@Benchmark
+	public int emptyTransaction(Empty empty) {
+		empty.run();
+		return empty.getAttempts();
+	}
+}
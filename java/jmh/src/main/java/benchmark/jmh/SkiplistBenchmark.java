@@ -0,0 +1,180 @@
+package benchmark.jmh;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import structures.IntSkiplist;
+import transactionLib.RangeIterator;
+import transactionLib.Transaction;
+
+/**
+ * Singleton operations, transactions and range iterations on a TDSL skiplist.
+ * The skiplist is filled once per trial with size distinct keys drawn from [0, range);
+ * puts and removes are equally likely, so its size stays about the same.
+ * The number of threads is JMH's -t.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(3)
+public class SkiplistBenchmark {
+
+	private static final Object VALUE = new Object();
+
+	/* An IntSkiplist class with a no-argument constructor */
+	@Param({"structures.tdslSkiplist"})
+	public String structure;
+
+	@Param({"1000", "100000"})
+	public int size;
+
+	/* The range of the keys, 0 for twice the size */
+	@Param({"0"})
+	public int range;
+
+	/* The percentage of gets among the operations */
+	@Param({"90", "50"})
+	public int readPercent;
+
+	@Param({"1", "10"})
+	public int opsPerTx;
+
+	/* The number of keys a range iteration covers */
+	@Param({"100"})
+	public int rangeLength;
+
+	private IntSkiplist<Object> skiplist;
+	private int keyRange;
+
+	@SuppressWarnings("unchecked")
+	@Setup(Level.Trial)
+	public void fill() throws ReflectiveOperationException {
+		skiplist = (IntSkiplist<Object>) Class.forName(structure).getDeclaredConstructor().newInstance();
+		keyRange = (range == 0) ? 2 * size : range;
+		if (size > keyRange)
+			throw new IllegalArgumentException("size " + size + " does not fit in range " + keyRange);
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		boolean[] drawn = new boolean[keyRange];
+		int[] keys = new int[size];
+		for (int i = 0; i < size;) {
+			int key = random.nextInt(keyRange);
+			if (!drawn[key]) {
+				drawn[key] = true;
+				keys[i++] = key;
+			}
+		}
+		Object[] vals = new Object[size];
+		for (int i = 0; i < size; i++)
+			vals[i] = VALUE;
+		skiplist.putAll(keys, vals);
+	}
+
+	Object operation(ThreadLocalRandom random) {
+		int key = random.nextInt(keyRange);
+		if (random.nextInt(100) < readPercent)
+			return skiplist.get(key);
+		if (random.nextBoolean())
+			return skiplist.put(key, VALUE);
+		return skiplist.remove(key);
+	}
+
+	int iterate(boolean atomic, int start) {
+		RangeIterator<Object> iter = skiplist.iterator(atomic);
+		iter.init_range(start, start + rangeLength);
+		int count = 0;
+		while (iter.hasNext()) {
+			iter.next();
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * A transaction of opsPerTx operations, reused by its thread.
+	 */
+	@State(Scope.Thread)
+	public static class Operations extends Transaction {
+
+		private SkiplistBenchmark bench;
+		/* Keeps the results alive */
+		public Object last;
+
+		@Setup(Level.Trial)
+		public void setup(SkiplistBenchmark bench) {
+			this.bench = bench;
+		}
+
+		@Override
+		public void execute() {
+			ThreadLocalRandom random = ThreadLocalRandom.current();
+			for (int i = 0; i < bench.opsPerTx; i++)
+				last = bench.operation(random);
+		}
+	}
+
+	/**
+	 * A read-only transaction that iterates over rangeLength keys, reused by its thread.
+	 */
+	@State(Scope.Thread)
+	public static class RangeQuery extends Transaction {
+
+		private SkiplistBenchmark bench;
+		public int count;
+
+		@Setup(Level.Trial)
+		public void setup(SkiplistBenchmark bench) {
+			this.bench = bench;
+		}
+
+		@Override
+		public void execute() {
+			int start = ThreadLocalRandom.current().nextInt(Math.max(1, bench.keyRange - bench.rangeLength));
+			count = bench.iterate(true, start);
+		}
+
+		@Override
+		protected boolean isReadOnly() {
+			return true;
+		}
+	}
+
+	@Benchmark
+	public Object singleton() {
+		return operation(ThreadLocalRandom.current());
+	}
+
+	@Benchmark
+	public Object transaction(Operations operations, Aborts aborts) {
+		operations.run();
+		aborts.count(operations);
+		return operations.last;
+	}
+
+	@Benchmark
+	public int rangeSingleton() {
+		int start = ThreadLocalRandom.current().nextInt(Math.max(1, keyRange - rangeLength));
+		return iterate(false, start);
+	}
+
+	@Benchmark
+	public int rangeTransaction(RangeQuery query, Aborts aborts) {
+		query.run();
+		aborts.count(query);
+		return query.count;
+	}
+}
@@ -0,0 +1,327 @@
+package benchmark;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import transactionLib.LinkedList;
+import transactionLib.Queue;
+import transactionLib.RangeIterator;
+import transactionLib.TXLibExceptions.AbortException;
+import transactionLib.Transaction;
+import transactionLib.UnrolledLinkedList;
+
+/**
+ * The invariant run of the benchmark (--check true), a smoke test rather than a measure.
+ * Threads move amounts between the keys of a LinkedList, park keys of it in a Queue
+ * and put them back, and move amounts and keys within an UnrolledLinkedList
+ * whose other keys singletons put and remove meanwhile, so that its chunks split and merge.
+ * Every transaction keeps the number of keys and the sum of their values, so both
+ * are checked along the way by atomic iterators and once the threads are done.
+ * A transaction that finds a key of the list parked waits for it with retry().
+ * Meant to run with -Dtdsl.reclaim=true and -Dtdsl.index.async=true,
+ * which run() sets when they are not given.
+ *
+ * Uses Parameters.numThreads (the first one audits), Parameters.size
+ * (the keys of each structure) and Parameters.numOps (the operations of each thread).
+ */
+public class Invariants {
+
+	private static final int INITIAL = 100;
+	// the value of the keys singletons churn, not counted
+	private static final Object CHURN = "churn";
+	// how long the workers may go without finishing an operation, a lost key makes them wait forever
+	private static final long STUCK_MILLIS = 10000;
+
+	private final int size = Parameters.size;
+	private final LinkedList accounts;
+	private final Queue parked;
+	// counted keys are multiples of 4, half of them present, singletons churn the odd ones
+	private final UnrolledLinkedList chunks;
+	private final AtomicLong errors = new AtomicLong();
+	private final AtomicLong ops = new AtomicLong();
+	private volatile boolean done = false;
+
+	private Invariants() {
+		accounts = new LinkedList();
+		parked = new Queue();
+		chunks = new UnrolledLinkedList();
+		for (int i = 0; i < size; i++) {
+			accounts.put(i, (Object) INITIAL);
+			chunks.put(8 * i, (Object) INITIAL);
+		}
+	}
+
+	/**
+	 * @return true if no invariant was broken
+	 */
+	public static boolean run() throws InterruptedException {
+		// read once, when the first structure is built
+		if (System.getProperty("tdsl.reclaim") == null)
+			System.setProperty("tdsl.reclaim", "true");
+		if (System.getProperty("tdsl.index.async") == null)
+			System.setProperty("tdsl.index.async", "true");
+		System.out.println("Invariant check, reclaim " + System.getProperty("tdsl.reclaim")
+				+ ", async index " + System.getProperty("tdsl.index.async"));
+		return new Invariants().check();
+	}
+
+	private boolean check() throws InterruptedException {
+		CountDownLatch latch = new CountDownLatch(1);
+		Thread[] threads = new Thread[Math.max(Parameters.numThreads, 2)];
+		threads[0] = new Thread(new Auditor());
+		for (int i = 1; i < threads.length; i++)
+			threads[i] = new Thread(new Worker(latch));
+		for (Thread thread : threads) {
+			thread.setDaemon(true);
+			thread.start();
+		}
+		latch.countDown();
+		long seen = -1;
+		for (int i = 1; i < threads.length; ) {
+			threads[i].join(STUCK_MILLIS);
+			if (threads[i].isAlive()) {
+				if (ops.get() == seen) {
+					error("stuck after " + seen + " operations");
+					return false;
+				}
+				seen = ops.get();
+			} else {
+				i++;
+			}
+		}
+		done = true;
+		threads[0].join();
+
+		int[] list = audit(accounts, 0, size - 1);
+		int[] unrolled = audit(chunks, 0, 8 * size);
+		expect("list keys", list[0], size);
+		expect("list sum", list[1], size * INITIAL);
+		expect("unrolled keys", unrolled[0], size);
+		expect("unrolled sum", unrolled[1], size * INITIAL);
+		expect("parked", parked.isEmpty() ? 0 : 1, 0);
+		printLine("keys " + list[0] + " + " + unrolled[0] + ", sums " + list[1] + " + " + unrolled[1]
+				+ ", errors " + errors.get());
+		return errors.get() == 0;
+	}
+
+	private void expect(String what, long actual, long expected) {
+		if (actual != expected)
+			error(what + " " + actual + " instead of " + expected);
+	}
+
+	private void error(String message) {
+		if (errors.incrementAndGet() <= 10)
+			printLine(message);
+	}
+
+	private static synchronized void printLine(String line) {
+		System.out.println("  " + line);
+	}
+
+	/**
+	 * @return the number of counted keys in [from, to] and the sum of their values,
+	 * 		   atomic if called in a transaction
+	 */
+	private static int[] audit(Object structure, int from, int to) throws AbortException {
+		RangeIterator<Object> iter = structure instanceof LinkedList
+				? ((LinkedList) structure).iterator(true)
+				: ((UnrolledLinkedList) structure).iterator(true);
+		iter.init_range(from, to);
+		int[] keysAndSum = new int[2];
+		while (iter.hasNext()) {
+			Object val = iter.next();
+			if (val != CHURN) {
+				keysAndSum[0]++;
+				keysAndSum[1] += (Integer) val;
+			}
+		}
+		return keysAndSum;
+	}
+
+	/**
+	 * Audits the unrolled list until the workers are done.
+	 * (The list is not audited along the way, its parked keys are in the queue.)
+	 */
+	private class Auditor extends Transaction {
+
+		private int[] result;
+
+		@Override
+		protected boolean isReadOnly() {
+			return true;
+		}
+
+		@Override
+		public void execute() throws AbortException {
+			result = audit(chunks, 0, 8 * size);
+		}
+
+		@Override
+		public void run() {
+			while (!done) {
+				super.run();
+				if (result[0] != size || result[1] != size * INITIAL)
+					error("audit saw keys " + result[0] + " sum " + result[1]);
+			}
+		}
+
+	}
+
+	private class Worker implements Runnable {
+
+		private final Random rand = new Random();
+		private final CountDownLatch latch;
+		// the keys this thread parked and did not put back yet, as many as it will dequeue
+		private int outstanding = 0;
+
+		Worker(CountDownLatch latch) {
+			this.latch = latch;
+		}
+
+		@Override
+		public void run() {
+			try {
+				latch.await();
+			} catch (InterruptedException e) {
+				return;
+			}
+			for (int op = 0; op < Parameters.numOps; op++) {
+				int r = rand.nextInt(10);
+				if (r < 2 && outstanding > 0)
+					unpark();
+				else if (r < 2)
+					park();
+				else if (r < 5)
+					transfer();
+				else if (r < 8)
+					move();
+				else
+					churn();
+				ops.incrementAndGet();
+			}
+			while (outstanding > 0) {
+				unpark();
+				ops.incrementAndGet();
+			}
+		}
+
+		/*
+		 * Moves an amount between two keys of the list. A thread that parked nothing
+		 * waits for a parked key to be put back: the queue then holds only the keys
+		 * of running threads, which put them back before they end.
+		 */
+		private void transfer() {
+			final int from = rand.nextInt(size);
+			final int to = rand.nextInt(size);
+			final int amount = 1 + rand.nextInt(10);
+			new Transaction() {
+				@Override
+				public void execute() throws AbortException {
+					Object a = accounts.get(from);
+					Object b = accounts.get(to);
+					if (a == null || b == null) {
+						if (outstanding == 0)
+							retry();
+						return;
+					}
+					if (from != to) {
+						accounts.put(from, (Object) ((Integer) a - amount));
+						accounts.put(to, (Object) ((Integer) b + amount));
+					}
+				}
+			}.run();
+		}
+
+		/*
+		 * Removes up to two keys from the list and enqueues them with their values,
+		 * in one segment.
+		 */
+		private void park() {
+			final int first = rand.nextInt(size);
+			final int second = rand.nextInt(size);
+			final int[] count = new int[1];
+			new Transaction() {
+				@Override
+				public void execute() throws AbortException {
+					count[0] = 0;
+					Object a = accounts.remove(first);
+					if (a != null) {
+						parked.enqueue(new int[] { first, (Integer) a });
+						count[0]++;
+					}
+					Object b = first == second ? null : accounts.remove(second);
+					if (b != null) {
+						parked.enqueue(new int[] { second, (Integer) b });
+						count[0]++;
+					}
+				}
+			}.run();
+			outstanding += count[0];
+		}
+
+		/*
+		 * Dequeues a parked key, of any thread, and puts it back.
+		 * The queue holds at least the keys this thread parked, so it waits only briefly.
+		 */
+		private void unpark() {
+			new Transaction() {
+				@Override
+				public void execute() throws AbortException {
+					int[] entry = (int[]) parked.poll();
+					if (entry == null) {
+						retry();
+						return;
+					}
+					if (accounts.putIfAbsent(entry[0], (Object) entry[1]) != null)
+						error("parked key " + entry[0] + " was in the list");
+				}
+			}.run();
+			outstanding--;
+		}
+
+		/*
+		 * Moves an amount between two counted keys of the unrolled list, or moves a key
+		 * with its value to a counted key that is not there.
+		 */
+		private void move() {
+			final int from = 4 * rand.nextInt(2 * size);
+			final int to = 4 * rand.nextInt(2 * size);
+			final int amount = 1 + rand.nextInt(10);
+			final boolean relocate = rand.nextBoolean();
+			new Transaction() {
+				@Override
+				public void execute() throws AbortException {
+					if (from == to)
+						return;
+					Object a = chunks.get(from);
+					if (a == null)
+						return;
+					if (relocate) {
+						if (chunks.containsKey(to))
+							return;
+						chunks.remove(from);
+						chunks.put(to, a);
+						return;
+					}
+					Object b = chunks.get(to);
+					if (b == null)
+						return;
+					chunks.put(from, (Object) ((Integer) a - amount));
+					chunks.put(to, (Object) ((Integer) b + amount));
+				}
+			}.run();
+		}
+
+		// puts or removes an uncounted key of the unrolled list, out of any transaction
+		private void churn() {
+			int key = 2 * rand.nextInt(4 * size) + 1;
+			if (rand.nextBoolean())
+				chunks.putIfAbsent(key, CHURN);
+			else
+				chunks.remove(key);
+		}
+
+	}
+
+}
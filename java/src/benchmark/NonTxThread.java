@@ -3,6 +3,7 @@ package benchmark;
 import java.util.Random;
 import java.util.concurrent.CountDownLatch;
 
+import structures.IntSkiplist;
 import structures.Skiplist;
 
 public class NonTxThread implements Runnable {
@@ -10,6 +11,8 @@ public class NonTxThread implements Runnable {
 
 	/* The instance of the running benchmark */
 	public Skiplist<Integer, Object> bench;
+	/* The same instance when it accepts primitive keys, null otherwise */
+	private final IntSkiplist<Object> intBench;
 	/* The number of the current thread */
 	protected final int myThreadNum;
 
@@ -22,9 +25,11 @@ public class NonTxThread implements Runnable {
 	Random rand = new Random();
 	private CountDownLatch latch;
 	
+	@SuppressWarnings("unchecked")
 	public NonTxThread(int myThreadNum, Skiplist<Integer, Object> bench, CountDownLatch latch) {
 		this.myThreadNum = myThreadNum;
 		this.bench = bench;
+		this.intBench = (bench instanceof IntSkiplist) ? (IntSkiplist<Object>) bench : null;
 		this.latch = latch;
 	}
 	
@@ -38,12 +43,18 @@ public class NonTxThread implements Runnable {
 		}
 		
 		while(readOps < Parameters.numOps) {
-			bench.containsKey(rand.nextInt(Parameters.range));
+			if (intBench != null)
+				intBench.containsKey(rand.nextInt(Parameters.range));
+			else
+				bench.containsKey(rand.nextInt(Parameters.range));
 			readOps++;
 		}
 		
 		while (writeOps < Parameters.numOps ) {
-			bench.put(rand.nextInt(Parameters.range), String.valueOf(writeOps));
+			if (intBench != null)
+				intBench.put(rand.nextInt(Parameters.range), String.valueOf(writeOps));
+			else
+				bench.put(rand.nextInt(Parameters.range), String.valueOf(writeOps));
 			writeOps++;
 		}
 
@@ -20,14 +20,20 @@ public class Parameters {
     
     public static boolean AtomicIterator = false;
 
+    // runs the invariant check instead of the benchmark (see Invariants)
+    public static boolean check = false;
+
     public static String benchClassName = new String("structures.tdslSkiplist");
+
+    // see transactionLib.VersionClock
+    public static String clock = "gv1";
     
     public static List<String> paramNames() {
-    	return Arrays.asList( "numThreads", "range", "size", "numOps");
+    	return Arrays.asList( "numThreads", "range", "size", "numOps", "clock");
     }
     
     public static List<String> paramValues() {
     	return Arrays.asList( String.valueOf(numThreads), String.valueOf(range), 
-    						  String.valueOf(size), String.valueOf(numOps));
+    						  String.valueOf(size), String.valueOf(numOps), clock);
     }
 }
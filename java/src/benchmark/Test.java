@@ -10,7 +10,9 @@ import java.util.Random;
 import java.util.concurrent.CountDownLatch;
 
 import benchmark.TxThread.TxType;
+import structures.IntSkiplist;
 import structures.Skiplist;
+import transactionLib.TX;
 
 /**
  * SynchrobenchTDSL-java, a benchmark to evaluate the implementations of 
@@ -100,6 +102,10 @@ public class Test {
 		Test test = new Test(args);
 		//test.printParams();
 
+		if (Parameters.check) {
+			System.exit(Invariants.run() ? 0 : 1);
+		}
+
 		// running the bench
 		for (; test.currentIteration < Parameters.iterations; test.currentIteration++) {
 			test.instanciateAbstraction(Parameters.benchClassName);
@@ -118,7 +124,25 @@ public class Test {
 		}
 	}
 	
+	@SuppressWarnings("unchecked")
 	public void fill(final int range, final long size) {
+		if (skiplistBench instanceof IntSkiplist) {
+			// draw distinct keys first, then insert them in one batch
+			boolean[] drawn = new boolean[range];
+			int[] keys = new int[(int) size];
+			for (int i = 0; i < keys.length;) {
+				int v = s_random.get().nextInt(range);
+				if (!drawn[v]) {
+					drawn[v] = true;
+					keys[i++] = v;
+				}
+			}
+			Object[] vals = new Object[keys.length];
+			for (int i = 0; i < keys.length; i++)
+				vals[i] = keys[i];
+			((IntSkiplist<Object>) skiplistBench).putAll(keys, vals);
+			return;
+		}
 		for (long i = size; i > 0;) {
 			Integer v = s_random.get().nextInt(range);
 			if (skiplistBench.putIfAbsent((Integer) v, (Integer) v) == null)
@@ -210,6 +234,15 @@ public class Test {
 				else if (currentArg.equals("--numOps")
 						|| currentArg.equals("-o"))
 					Parameters.numOps = Integer.parseInt(optionValue);
+				else if (currentArg.equals("--check")
+						|| currentArg.equals("-k"))
+					Parameters.check = Boolean.parseBoolean(optionValue);
+				else if (currentArg.equals("--clock")
+						|| currentArg.equals("-c")) {
+					// read once, when TX is loaded by the first list
+					Parameters.clock = optionValue;
+					System.setProperty(TX.CLOCK_PROPERTY, optionValue);
+				}
 				
 			} catch (IndexOutOfBoundsException e) {
 				System.err.println("Missing value after option: " + currentArg
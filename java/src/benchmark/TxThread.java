@@ -3,6 +3,7 @@ package benchmark;
 import java.util.Random;
 import java.util.concurrent.CountDownLatch;
 
+import structures.IntSkiplist;
 import structures.Skiplist;
 import transactionLib.RangeIterator;
 import transactionLib.TXLibExceptions.AbortException;
@@ -21,6 +22,8 @@ public class TxThread extends Transaction {
 	
 	/* The instance of the running benchmark */
 	public Skiplist<Integer, Object> bench;
+	/* The same instance when it accepts primitive keys, null otherwise */
+	private final IntSkiplist<Object> intBench;
 	/* The number of the current thread */
 	protected final int myThreadNum;
 
@@ -33,10 +36,12 @@ public class TxThread extends Transaction {
 	Random rand = new Random();
 	public TxType txType;
 
+	@SuppressWarnings("unchecked")
 	public TxThread(int myThreadNum, Skiplist<Integer, Object> bench, CountDownLatch latch, TxType txType) {
 		super(latch);
 		this.myThreadNum = myThreadNum;
 		this.bench = bench;
+		this.intBench = (bench instanceof IntSkiplist) ? (IntSkiplist<Object>) bench : null;
 		this.txType = txType;
 	}
 
@@ -59,14 +64,25 @@ public class TxThread extends Transaction {
 		if (txType == TxType.WriteOnly) {
 			
 			while (writeOps < Parameters.numOps) {
-				bench.put(rand.nextInt(Parameters.range), String.valueOf(writeOps));
+				if (intBench != null)
+					intBench.put(rand.nextInt(Parameters.range), String.valueOf(writeOps));
+				else
+					bench.put(rand.nextInt(Parameters.range), String.valueOf(writeOps));
 				writeOps++;
-				bench.remove(rand.nextInt(Parameters.range));
+				if (intBench != null)
+					intBench.remove(rand.nextInt(Parameters.range));
+				else
+					bench.remove(rand.nextInt(Parameters.range));
 				writeOps++;
 			}
 		}
 	}
 	
+	@Override
+	protected boolean isReadOnly() {
+		return txType == TxType.ReadOnly;
+	}
+	
 	private void reboot() {
 		aborts++;
 		readOps = 0;
@@ -0,0 +1,51 @@
+package structures;
+
+/**
+ * Interface of a Skiplist with primitive int keys.
+ * Mirrors {@link Skiplist}, so that callers holding an int never box it.
+ */
+
+public interface IntSkiplist<V> extends Skiplist<Integer, V> {
+
+	/**
+     * @see Skiplist#put(Object, Object)
+	 */
+	public V put(int key, V val);
+
+	/**
+     * @see Skiplist#putIfAbsent(Object, Object)
+     */
+	public V putIfAbsent(int key, V val);
+
+	/**
+     * @see Skiplist#remove(Object)
+     */
+	public V remove(int key);
+
+	/**
+     * @see Skiplist#containsKey(Object)
+     */
+	public boolean containsKey(int key);
+
+	/**
+     * @see Skiplist#get(Object)
+     */
+	public V get(int key);
+
+	/**
+     * @effects Associates vals[i] with keys[i] for every i, as put() would.
+     * 			The keys are applied in increasing order, a repeated key keeps its last value.
+     *
+     * @throws  NullPointerException if a value is null
+     * @throws  IllegalArgumentException if keys and vals differ in length
+     */
+	public void putAll(int[] keys, V[] vals);
+
+	/**
+     * @effects Removes the mappings of keys that are present, as remove() would.
+     *
+     * @return  The number of mappings removed.
+     */
+	public int removeAll(int[] keys);
+
+}
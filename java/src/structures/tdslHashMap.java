@@ -0,0 +1,27 @@
+package structures;
+
+import transactionLib.HashTable;
+import transactionLib.TXDomain;
+
+/**
+ * A hash map behind the Skiplist interface of the benchmarks,
+ * for workloads of exact-key accesses. Its iterators are not ordered (see HashTable).
+ */
+public class tdslHashMap extends HashTable implements IntSkiplist<Object> {
+
+	public tdslHashMap() {
+	}
+
+	public tdslHashMap(int capacity) {
+		super(capacity);
+	}
+
+	public tdslHashMap(TXDomain domain) {
+		super(domain);
+	}
+
+	public tdslHashMap(TXDomain domain, int capacity) {
+		super(domain, capacity);
+	}
+
+}
@@ -1,5 +1,15 @@
 package structures;
 
 import transactionLib.LinkedList;
+import transactionLib.TXDomain;
 
-public class tdslSkiplist extends LinkedList implements Skiplist<Integer,Object> {}
+public class tdslSkiplist extends LinkedList implements IntSkiplist<Object> {
+
+	public tdslSkiplist() {
+	}
+
+	public tdslSkiplist(TXDomain domain) {
+		super(domain);
+	}
+
+}
@@ -0,0 +1,22 @@
+package structures;
+
+import transactionLib.LinkedList;
+import transactionLib.TXDomain;
+
+/**
+ * A tdslSkiplist whose read-only transactions read a snapshot
+ * (see LinkedList#LinkedList(int)).
+ */
+public class tdslSnapshotSkiplist extends LinkedList implements IntSkiplist<Object> {
+
+	private static final int HISTORY_LENGTH = 64;
+
+	public tdslSnapshotSkiplist() {
+		super(HISTORY_LENGTH);
+	}
+
+	public tdslSnapshotSkiplist(TXDomain domain) {
+		super(domain, HISTORY_LENGTH);
+	}
+
+}
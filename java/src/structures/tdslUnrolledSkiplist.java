@@ -0,0 +1,18 @@
+package structures;
+
+import transactionLib.TXDomain;
+import transactionLib.UnrolledLinkedList;
+
+/**
+ * A tdslSkiplist whose data list holds chunks of keys (see UnrolledLinkedList).
+ */
+public class tdslUnrolledSkiplist extends UnrolledLinkedList implements IntSkiplist<Object> {
+
+	public tdslUnrolledSkiplist() {
+	}
+
+	public tdslUnrolledSkiplist(TXDomain domain) {
+		super(domain);
+	}
+
+}
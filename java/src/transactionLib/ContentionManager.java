@@ -0,0 +1,199 @@
+package transactionLib;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Decides what Transaction.run() does between the attempts of a transaction.
+ * Chosen at startup with -Dtdsl.cm=aggressive|backoff|karma|timestamp (aggressive by default),
+ * and -Dtdsl.cm.serialAfter=n to run a transaction alone after n aborts (0, the default, never does).
+ * A Transaction can also be given its own with setContentionManager().
+ */
+public abstract class ContentionManager {
+
+    private static final ContentionManager defaultManager = forName(System.getProperty("tdsl.cm", "aggressive"),
+            Integer.getInteger("tdsl.cm.serialAfter", 0));
+
+    private final int serialAfter;
+
+    /**
+     * @param serialAfter the number of aborts after which a transaction
+     *                    runs alone (see SerialLock), 0 for never
+     */
+    protected ContentionManager(int serialAfter) {
+        this.serialAfter = serialAfter;
+        if (serialAfter > 0) {
+            SerialLock.enable();
+        }
+    }
+
+    public static ContentionManager getDefault() {
+        return defaultManager;
+    }
+
+    public static ContentionManager forName(String name, int serialAfter) {
+        if (name.equals("aggressive")) {
+            return new Aggressive(serialAfter);
+        } else if (name.equals("backoff")) {
+            return new Backoff(serialAfter);
+        } else if (name.equals("karma")) {
+            return new Karma(serialAfter);
+        } else if (name.equals("timestamp")) {
+            return new Timestamp(serialAfter);
+        }
+        throw new IllegalArgumentException("unknown contention manager " + name);
+    }
+
+    public int getSerialAfter() {
+        return serialAfter;
+    }
+
+    /**
+     * Called after an attempt of tx aborted, before the next one.
+     * Waiting here gives the transactions that won a chance to finish.
+     */
+    protected abstract void onAbort(Transaction tx);
+
+    /**
+     * Called once tx is over, whether it committed or threw.
+     */
+    protected void onEnd(Transaction tx) {
+    }
+
+    // spins on short waits, parking costs more than that
+    protected static void pause(long nanos) {
+        if (nanos < 10000) {
+            long end = System.nanoTime() + nanos;
+            while (System.nanoTime() < end) {
+            }
+        } else {
+            LockSupport.parkNanos(nanos);
+        }
+    }
+
+    /**
+     * Retries at once.
+     */
+    public static class Aggressive extends ContentionManager {
+
+        public Aggressive(int serialAfter) {
+            super(serialAfter);
+        }
+
+        @Override
+        protected void onAbort(Transaction tx) {
+        }
+
+    }
+
+    /**
+     * Waits a random time, within a window that doubles with every abort.
+     */
+    public static class Backoff extends ContentionManager {
+
+        private static final long MIN_NANOS = 128;
+        private static final long MAX_NANOS = 1 << 20;
+
+        private final long minNanos;
+        private final long maxNanos;
+
+        public Backoff(int serialAfter) {
+            this(serialAfter, MIN_NANOS, MAX_NANOS);
+        }
+
+        public Backoff(int serialAfter, long minNanos, long maxNanos) {
+            super(serialAfter);
+            this.minNanos = minNanos;
+            this.maxNanos = maxNanos;
+        }
+
+        protected long window(int aborts) {
+            int shift = Math.min(aborts - 1, 30);
+            return Math.min(minNanos << shift, maxNanos);
+        }
+
+        @Override
+        protected void onAbort(Transaction tx) {
+            pause(ThreadLocalRandom.current().nextLong(window(tx.getAttempts())));
+        }
+
+    }
+
+    /**
+     * The transaction that aborted with the most karma retries at once, the others back off,
+     * less as they lose more work to aborts so that large transactions are not starved by small ones.
+     * The karma of a transaction is the number of nodes its aborted attempts accessed.
+     * Locks do not tell who holds them, so a transaction is compared with the transactions
+     * that aborted and are not over rather than with the one it met, as Timestamp does with ages.
+     */
+    public static class Karma extends Backoff {
+
+        private static final long NONE = -1;
+
+        // the karma of the transaction with the most that aborted and is not over
+        private final AtomicLong highest = new AtomicLong(NONE);
+
+        public Karma(int serialAfter) {
+            super(serialAfter);
+        }
+
+        @Override
+        protected void onAbort(Transaction tx) {
+            long karma = tx.getKarma();
+            long current = highest.get();
+            while (karma > current && !highest.compareAndSet(current, karma)) {
+                current = highest.get();
+            }
+            if (karma < highest.get()) {
+                int level = 63 - Long.numberOfLeadingZeros(karma + 1);
+                pause(ThreadLocalRandom.current().nextLong(window(tx.getAttempts()) / (level + 1) + 1));
+            }
+        }
+
+        @Override
+        protected void onEnd(Transaction tx) {
+            if (tx.getAttempts() > 1) {
+                highest.compareAndSet(tx.getKarma(), NONE);
+            }
+        }
+
+    }
+
+    /**
+     * The oldest transaction that aborted retries at once, the others back off.
+     * The age of a transaction is the time of its first attempt.
+     */
+    public static class Timestamp extends Backoff {
+
+        private static final long NONE = Long.MAX_VALUE;
+
+        // the first attempt time of the oldest transaction that aborted and is not over
+        private final AtomicLong oldest = new AtomicLong(NONE);
+
+        public Timestamp(int serialAfter) {
+            super(serialAfter);
+        }
+
+        @Override
+        protected void onAbort(Transaction tx) {
+            long start = tx.getFirstAttemptTime();
+            long current = oldest.get();
+            while (start < current && !oldest.compareAndSet(current, start)) {
+                current = oldest.get();
+            }
+            if (start > oldest.get()) {
+                super.onAbort(tx);
+            }
+        }
+
+        @Override
+        protected void onEnd(Transaction tx) {
+            if (tx.getAttempts() > 1) {
+                oldest.compareAndSet(tx.getFirstAttemptTime(), NONE);
+            }
+        }
+
+    }
+
+}
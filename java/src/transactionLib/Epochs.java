@@ -0,0 +1,188 @@
+package transactionLib;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Epoch-based reclamation of the nodes removed from the lists of a domain,
+ * so that inserts reuse them instead of leaving them to the garbage collector.
+ * Enabled with -Dtdsl.reclaim=true.
+ * A thread announces the epoch it is in while it runs a transaction or a singleton operation.
+ * The epoch moves on once every thread in an operation announced it, so a node retired
+ * (unlinked) in an epoch is out of reach of every operation two epochs later:
+ * it then moves from the limbo of the thread that retired it to its pool of free nodes.
+ * Nodes with index entries or watched by parked threads (see Waiters) are left to the
+ * garbage collector (see LNode.tryRetire() and LNode.isPinned()),
+ * and so are the nodes of lists that keep history, which snapshots reach through older links.
+ */
+public class Epochs {
+
+    protected static final boolean enabled = Boolean.getBoolean("tdsl.reclaim");
+
+    // retired nodes a thread keeps, the oldest are left to the garbage collector beyond that
+    private static final int LIMBO_SIZE = 1024;
+    private static final int POOL_SIZE = 1024;
+    // retirements between attempts to move the epoch
+    private static final int ADVANCE_EVERY = 64;
+
+    protected static class Slot {
+        private final WeakReference<Thread> owner = new WeakReference<Thread>(Thread.currentThread());
+        private volatile boolean active = false;
+        private volatile long epoch = 0;
+        // the fields below are only used by the owner
+        private int depth = 0; // operations run within operations, see enter()
+        private final LNode[] limbo = new LNode[LIMBO_SIZE];
+        private final long[] retiredAt = new long[LIMBO_SIZE];
+        private int limboHead = 0;
+        private int limboSize = 0;
+        private int retires = 0;
+        private final LNode[] pool = new LNode[POOL_SIZE];
+        private int poolSize = 0;
+        // removed by the running transaction, retired if it commits
+        private LNode[] removed = new LNode[16];
+        private int removedCount = 0;
+    }
+
+    private final CopyOnWriteArrayList<Slot> slots = new CopyOnWriteArrayList<Slot>();
+    private final AtomicLong epoch = new AtomicLong();
+
+    private Slot slot(LocalStorage localStorage) {
+        Slot slot = localStorage.epochSlot;
+        if (slot == null) {
+            slot = new Slot();
+            slots.add(slot);
+            localStorage.epochSlot = slot;
+        }
+        return slot;
+    }
+
+    /**
+     * Begins an operation of the calling thread. An operation begun within another,
+     * such as a non-atomic iterator in a transaction, stays in the epoch of the outer one.
+     *
+     * @return the epoch the thread is in
+     */
+    protected long enter(LocalStorage localStorage) {
+        Slot slot = slot(localStorage);
+        if (slot.depth++ == 0) {
+            slot.active = true;
+            // read after announcing, so that the epoch cannot move twice past it meanwhile
+            slot.epoch = epoch.get();
+        }
+        return slot.epoch;
+    }
+
+    protected void exit(LocalStorage localStorage) {
+        Slot slot = localStorage.epochSlot;
+        if (--slot.depth == 0) {
+            slot.active = false;
+        }
+    }
+
+    /**
+     * @return the current epoch, an operation that read it can tell
+     * whether the nodes it held before may have been reused since (see LinkedList.iterator())
+     */
+    protected long current() {
+        return epoch.get();
+    }
+
+    /**
+     * Retires a node the calling thread unlinked, once no longer locked.
+     */
+    protected void retire(LocalStorage localStorage, LNode node) {
+        if (node.isPinned() || !node.tryRetire()) {
+            return; // a waiter or an index may still lead to it
+        }
+        Slot slot = slot(localStorage);
+        if (slot.limboSize == LIMBO_SIZE) {
+            // drop the oldest rather than grow, when some thread holds the epoch back
+            slot.limbo[slot.limboHead] = null;
+            slot.limboHead = (slot.limboHead + 1) % LIMBO_SIZE;
+            slot.limboSize--;
+        }
+        int tail = (slot.limboHead + slot.limboSize) % LIMBO_SIZE;
+        slot.limbo[tail] = node;
+        // read once unlinked, any operation that still reaches node began no later
+        slot.retiredAt[tail] = epoch.get();
+        slot.limboSize++;
+        if (++slot.retires % ADVANCE_EVERY == 0) {
+            tryAdvance();
+            reclaim(slot);
+        }
+    }
+
+    /**
+     * Notes a node removed by the running transaction, retired by retireRemoved() if it commits.
+     */
+    protected void addRemoved(LocalStorage localStorage, LNode node) {
+        Slot slot = slot(localStorage);
+        if (slot.removedCount == slot.removed.length) {
+            LNode[] removed = new LNode[slot.removedCount * 2];
+            System.arraycopy(slot.removed, 0, removed, 0, slot.removedCount);
+            slot.removed = removed;
+        }
+        slot.removed[slot.removedCount++] = node;
+    }
+
+    /**
+     * Called at the end of every transaction.
+     */
+    protected void retireRemoved(LocalStorage localStorage, boolean committed) {
+        Slot slot = localStorage.epochSlot;
+        for (int i = 0; i < slot.removedCount; i++) {
+            if (committed) {
+                retire(localStorage, slot.removed[i]);
+            }
+            slot.removed[i] = null;
+        }
+        slot.removedCount = 0;
+    }
+
+    /**
+     * @return a node of the pool of the calling thread with the given key and value,
+     * or a new one if the pool is empty
+     */
+    protected LNode allocate(LocalStorage localStorage, int key, Object val) {
+        Slot slot = localStorage.epochSlot;
+        if (slot == null || slot.poolSize == 0) {
+            return new LNode(key, val);
+        }
+        LNode node = slot.pool[--slot.poolSize];
+        slot.pool[slot.poolSize] = null;
+        node.reuse(key, val);
+        return node;
+    }
+
+    // moves the epoch on if every thread in an operation is in it
+    private void tryAdvance() {
+        long current = epoch.get();
+        for (Slot slot : slots) {
+            if (slot.active) {
+                if (slot.epoch != current) {
+                    return;
+                }
+            } else if (slot.owner.get() == null) {
+                slots.remove(slot); // its thread is gone
+            }
+        }
+        epoch.compareAndSet(current, current + 1);
+    }
+
+    // moves the nodes retired two epochs ago or earlier to the pool
+    private void reclaim(Slot slot) {
+        long safe = epoch.get() - 2;
+        while (slot.limboSize > 0 && slot.retiredAt[slot.limboHead] <= safe) {
+            LNode node = slot.limbo[slot.limboHead];
+            slot.limbo[slot.limboHead] = null;
+            slot.limboHead = (slot.limboHead + 1) % LIMBO_SIZE;
+            slot.limboSize--;
+            // pinned after its retirement, by a transaction that read it before
+            if (slot.poolSize < POOL_SIZE && !node.isPinned()) {
+                slot.pool[slot.poolSize++] = node;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,761 @@
+package transactionLib;
+
+import sun.misc.Unsafe;
+
+import java.lang.reflect.Field;
+import java.util.NoSuchElementException;
+
+/**
+ * A hash map for exact-key accesses, used in the same transactions as LinkedList and Queue.
+ * Its nodes form one list sorted by the bit-reversed hashes of their keys (split ordering),
+ * read, written and committed like the nodes of a LinkedList (see TX.end()).
+ * A bucket is a node without a key, sorted before the keys whose hashes end with its index,
+ * so that a lookup walks a node or two from its bucket instead of descending an index.
+ * Buckets are linked into the list by the first write that needs them, and the table of buckets
+ * doubles once a lookup walks too many keys from its bucket: a new bucket splits the keys
+ * of an older one by being linked among them, keys never move.
+ * Iterators walk the list, so keys come in no particular order.
+ */
+public class HashTable implements Iterable<Object> {
+
+    public static final int DEFAULT_CAPACITY = 16;
+
+    private static final int MAXIMUM_CAPACITY = 1 << 30;
+    // the keys a lookup may walk from its own bucket before the table doubles
+    private static final int MAX_WALK = 8;
+
+    private static final Unsafe unsafe;
+    private static final long bucketsOffset;
+    private static final long bucketBase;
+    private static final int bucketShift;
+
+    static {
+        try {
+            Field f = Unsafe.class.getDeclaredField("theUnsafe");
+            f.setAccessible(true);
+            unsafe = (Unsafe) f.get(null);
+            bucketsOffset = unsafe.objectFieldOffset
+                    (HashTable.class.getDeclaredField("buckets"));
+            bucketBase = unsafe.arrayBaseOffset(Bucket[].class);
+            bucketShift = 31 - Integer.numberOfLeadingZeros(unsafe.arrayIndexScale(Bucket[].class));
+        } catch (Exception e) {
+            throw new Error(e);
+        }
+    }
+
+    /**
+     * The node a bucket begins with, never deleted.
+     */
+    private static final class Bucket extends LNode {
+
+        private final int index;
+        // even, see keyOrder()
+        private final long order;
+
+        private Bucket(int index) {
+            super(Integer.MIN_VALUE, null);
+            this.index = index;
+            this.order = (Integer.reverse(index) & 0xFFFFFFFFL) << 1;
+        }
+    }
+
+    // returned by nextSingleton() when the node was deleted
+    private static final LNode RESTART = new LNode(Integer.MIN_VALUE, null);
+
+    // the first bucket, the head of the list
+    private final Bucket head;
+    // the buckets linked so far by index, null for the others
+    private volatile Bucket[] buckets;
+    // whose transactions and clock this map uses
+    protected final TXDomain domain;
+
+    public HashTable() {
+        this(TXDomain.getDefault(), DEFAULT_CAPACITY);
+    }
+
+    public HashTable(int capacity) {
+        this(TXDomain.getDefault(), capacity);
+    }
+
+    public HashTable(TXDomain domain) {
+        this(domain, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity the number of buckets to begin with, rounded up to a power of two
+     */
+    public HashTable(TXDomain domain, int capacity) {
+        if (domain == null)
+            throw new NullPointerException();
+        if (capacity < 1 || capacity > MAXIMUM_CAPACITY)
+            throw new IllegalArgumentException();
+        this.domain = domain;
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        head = new Bucket(0);
+        buckets = new Bucket[size];
+        buckets[0] = head;
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9; // spreads consecutive keys over the buckets
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * @return where key sorts in the list, odd so that it follows the bucket of the same bits
+     * (the hash is a bijection, so no two keys sort together)
+     */
+    private static long keyOrder(int key) {
+        return (Integer.reverse(hash(key)) & 0xFFFFFFFFL) << 1 | 1;
+    }
+
+    private static boolean hasKey(LNode n, int key) {
+        return n != null && n.key == key && !(n instanceof Bucket);
+    }
+
+    private static long order(LNode n) {
+        return n instanceof Bucket ? ((Bucket) n).order : keyOrder(n.key);
+    }
+
+    private static Bucket bucketAt(Bucket[] table, int i) {
+        return (Bucket) unsafe.getObjectVolatile(table, bucketBase + ((long) i << bucketShift));
+    }
+
+    private static void setBucketAt(Bucket[] table, int i, Bucket bucket) {
+        unsafe.putObjectVolatile(table, bucketBase + ((long) i << bucketShift), bucket);
+    }
+
+    /**
+     * @param link whether to link bucket i into the list if it is not yet.
+     *             Like a singleton write it changes the version of its pred, so only
+     *             writers that cannot make a serial transaction abort do (see SerialLock).
+     * @return bucket i, or the closest bucket it splits from if not linked
+     */
+    private Bucket bucketOf(Bucket[] table, int i, boolean link) {
+        Bucket bucket = bucketAt(table, i);
+        if (bucket != null) {
+            return bucket;
+        }
+        if (link) {
+            return linkBucket(table, i);
+        }
+        do {
+            i &= ~Integer.highestOneBit(i);
+            bucket = bucketAt(table, i);
+        } while (bucket == null);
+        return bucket;
+    }
+
+    private Bucket linkBucket(Bucket[] table, int i) {
+        Bucket bucket = new Bucket(i);
+        LNode parent = bucketOf(table, i & ~Integer.highestOneBit(i), true);
+        while (true) {
+            LNode pred = seekSingleton(parent, bucket.order);
+            LNode next = nextSingleton(pred);
+            if (next == RESTART) {
+                continue;
+            }
+            if (next != null && order(next) == bucket.order) {
+                bucket = (Bucket) next; // linked by another thread
+                break;
+            }
+            if (!pred.tryLock()) {
+                continue;
+            }
+            if (pred.isDeleted() || pred.next != next) {
+                pred.unlock();
+                continue;
+            }
+            long ver = domain.singletonVersion();
+            bucket.next = next;
+            bucket.setVersionNoLockAssert(ver);
+            pred.next = bucket;
+            // so that a transaction that read pred.next before does not write over it
+            pred.setVersion(ver);
+            pred.unlock();
+            break;
+        }
+        // (the table may have doubled meanwhile, it keeps the lower half)
+        setBucketAt(buckets, i, bucket);
+        return bucket;
+    }
+
+    /**
+     * Doubles the table after a lookup walked more than MAX_WALK keys from bucket,
+     * the new buckets are linked as writes need them.
+     */
+    private void walked(Bucket[] table, int i, Bucket bucket, int walked) {
+        if (walked <= MAX_WALK || bucket.index != i || table.length == MAXIMUM_CAPACITY
+                || buckets != table) {
+            return;
+        }
+        Bucket[] bigger = new Bucket[table.length * 2];
+        for (int j = 0; j < table.length; j++) {
+            bigger[j] = bucketAt(table, j);
+        }
+        unsafe.compareAndSwapObject(this, bucketsOffset, table, bigger);
+    }
+
+    /**
+     * n.next, read while n was unlocked, since a commit changes several nodes under their locks.
+     *
+     * @return RESTART if n was deleted
+     */
+    private static LNode nextSingleton(LNode n) {
+        while (true) {
+            long l = n.waitUnlocked();
+            if (LNode.isDeleted(l)) {
+                return RESTART;
+            }
+            unsafe.loadFence();
+            LNode next = n.next;
+            unsafe.loadFence();
+            if (n.getVersionAndFlags() == l) {
+                return next;
+            }
+        }
+    }
+
+    /**
+     * @return the last node from bucket that sorts before order, not deleted when read
+     */
+    private static LNode seekSingleton(LNode bucket, long order) {
+        restart:
+        while (true) {
+            LNode pred = bucket;
+            LNode next = nextSingleton(pred);
+            while (next != null && order(next) < order) {
+                pred = next;
+                next = nextSingleton(pred);
+                if (next == RESTART) {
+                    continue restart;
+                }
+            }
+            return pred;
+        }
+    }
+
+    /**
+     * @return the last node that sorts before key, not deleted when read
+     */
+    private LNode seekSingleton(int key, boolean link) {
+        Bucket[] table = buckets;
+        int i = hash(key) & (table.length - 1);
+        Bucket bucket = bucketOf(table, i, link);
+        long order = keyOrder(key);
+        restart:
+        while (true) {
+            int walked = 0;
+            LNode pred = bucket;
+            LNode next = nextSingleton(pred);
+            while (next != null && order(next) < order) {
+                pred = next;
+                walked++;
+                next = nextSingleton(pred);
+                if (next == RESTART) {
+                    continue restart;
+                }
+            }
+            walked(table, i, bucket, walked);
+            return pred;
+        }
+    }
+
+    private Object getSingleton(int key, boolean needVal) {
+        long order = keyOrder(key);
+        while (true) {
+            LNode next = nextSingleton(seekSingleton(key, false));
+            if (next == RESTART) {
+                continue;
+            }
+            if (next == null || order(next) != order) {
+                return null;
+            }
+            if (!needVal) {
+                return Boolean.TRUE;
+            }
+            long l = next.waitUnlocked();
+            if (!LNode.isDeleted(l)) {
+                unsafe.loadFence();
+                Object val = next.val;
+                unsafe.loadFence();
+                if (next.getVersionAndFlags() == l) {
+                    return val;
+                }
+            }
+        }
+    }
+
+    private Object putSingleton(int key, Object val, boolean onlyIfAbsent) {
+        long order = keyOrder(key);
+        while (true) {
+            LNode pred = seekSingleton(key, true);
+            LNode next = nextSingleton(pred);
+            if (next == RESTART) {
+                continue;
+            }
+
+            if (next != null && order(next) == order) {
+                // the key exists, change its value under its own lock
+                if (!next.tryLock()) {
+                    continue;
+                }
+                if (next.isDeleted()) {
+                    next.unlock();
+                    continue;
+                }
+                Object ret = next.val;
+                if (!onlyIfAbsent) {
+                    next.val = val;
+                    next.setVersion(domain.singletonVersion());
+                }
+                next.unlock();
+                return ret;
+            }
+
+            // key doesn't exist, insert it after pred
+            if (!pred.tryLock()) {
+                continue;
+            }
+            if (pred.isDeleted() || pred.next != next) {
+                pred.unlock();
+                continue;
+            }
+            long ver = domain.singletonVersion();
+            LNode n = new LNode(key, val);
+            n.next = next;
+            n.setVersionNoLockAssert(ver);
+            pred.next = n;
+            // so that a transaction that read pred.next before sees the insert
+            pred.setVersion(ver);
+            pred.unlock();
+            return null;
+        }
+    }
+
+    private Object removeSingleton(int key) {
+        long order = keyOrder(key);
+        while (true) {
+            LNode pred = seekSingleton(key, false);
+            LNode next = nextSingleton(pred);
+            if (next == RESTART) {
+                continue;
+            }
+            if (next == null || order(next) != order) {
+                return null;
+            }
+            if (!pred.tryLock()) {
+                continue;
+            }
+            if (pred.isDeleted() || pred.next != next) {
+                pred.unlock();
+                continue;
+            }
+            if (!next.tryLock()) {
+                pred.unlock();
+                continue;
+            }
+            long ver = domain.singletonVersion();
+            Object ret = next.val;
+            pred.next = next.next;
+            next.val = null;
+            next.setVersionAndDeleted(ver, true);
+            pred.setVersion(ver);
+            next.unlock();
+            pred.unlock();
+            return ret;
+        }
+    }
+
+    /**
+     * Aborts unless n, just read, was not changed since the read version.
+     * A version newer than the read version extends it if it can (see TX.extend).
+     *
+     * @return false if the read version was extended, n must then be read again
+     */
+    private boolean validate(LNode n, LocalStorage localStorage) throws TXLibExceptions.AbortException {
+        if (n.isLocked()) {
+            throw TX.abort(localStorage);
+        }
+        long version = n.getVersion();
+        if (version > localStorage.readVersion) {
+            if (TX.extend(localStorage, version)) {
+                return false;
+            }
+            throw TX.abort(localStorage);
+        }
+        return true;
+    }
+
+    private Object getVal(LNode n, LocalStorage localStorage) throws TXLibExceptions.AbortException {
+        WriteElement we = localStorage.writeSet.get(n);
+        if (we != null) {
+            return we.val;
+        }
+        while (true) {
+            if (n.isLocked()) {
+                throw TX.abort(localStorage);
+            }
+            unsafe.loadFence();
+            Object val = n.val;
+            unsafe.loadFence();
+            if (validate(n, localStorage)) {
+                return val;
+            }
+        }
+    }
+
+    private LNode getNext(LNode n, LocalStorage localStorage) throws TXLibExceptions.AbortException {
+        WriteElement we = localStorage.writeSet.get(n);
+        if (we != null) {
+            return we.next;
+        }
+        while (true) {
+            if (n.isLocked()) {
+                throw TX.abort(localStorage);
+            }
+            unsafe.loadFence();
+            LNode next = n.next;
+            unsafe.loadFence();
+            if (validate(n, localStorage)) {
+                return next;
+            }
+            if (n.isDeleted()) {
+                // removed since we reached it, its next leads nowhere
+                throw TX.abort(localStorage);
+            }
+        }
+    }
+
+    /**
+     * @param link whether to link the bucket of key if it is not yet (see bucketOf())
+     * @return the last node that sorts before key, as the transaction sees it.
+     * It is in the read set, so that reading its next again cannot extend
+     * the read version past a key put before key meanwhile.
+     */
+    private LNode getPred(int key, boolean link, LocalStorage localStorage) throws TXLibExceptions.AbortException {
+        Bucket[] table = buckets;
+        int i = hash(key) & (table.length - 1);
+        Bucket bucket = bucketOf(table, i, link);
+        long order = keyOrder(key);
+        int walked = 0;
+        LNode pred = bucket;
+        LNode next = getNext(pred, localStorage);
+        while (next != null && order(next) < order) {
+            pred = next;
+            walked++;
+            next = getNext(pred, localStorage);
+        }
+        walked(table, i, bucket, walked);
+        localStorage.addToReadSet(pred);
+        return pred;
+    }
+
+    /**
+     * @see LinkedList#put(int, Object)
+     */
+    public Object put(int key, Object val) throws TXLibExceptions.AbortException {
+        return put(key, val, false);
+    }
+
+    public Object put(Integer key, Object val) throws TXLibExceptions.AbortException {
+        if (key == null)
+            throw new NullPointerException();
+        return put(key.intValue(), val, false);
+    }
+
+    /**
+     * @see LinkedList#putIfAbsent(int, Object)
+     */
+    public Object putIfAbsent(int key, Object val) throws TXLibExceptions.AbortException {
+        return put(key, val, true);
+    }
+
+    public Object putIfAbsent(Integer key, Object val) throws TXLibExceptions.AbortException {
+        if (key == null)
+            throw new NullPointerException();
+        return put(key.intValue(), val, true);
+    }
+
+    private Object put(int key, Object val, boolean onlyIfAbsent) throws TXLibExceptions.AbortException {
+
+        if (val == null)
+            throw new NullPointerException();
+
+        LocalStorage localStorage = domain.localStorage();
+
+        // SINGLETON
+        if (!localStorage.TX) {
+            domain.beginSingleton(localStorage);
+            try {
+                return putSingleton(key, val, onlyIfAbsent);
+            } finally {
+                domain.endSingleton(localStorage);
+            }
+        }
+
+        // TX
+        localStorage.setWriting();
+
+        // a serial transaction does not link buckets, it must not change what it read
+        LNode pred = getPred(key, !SerialLock.isSerial(), localStorage);
+        LNode next = getNext(pred, localStorage);
+
+        if (hasKey(next, key)) {
+            // add to read set before reading it, see LinkedList.validate
+            localStorage.addToReadSet(next);
+            Object ret = getVal(next, localStorage);
+            if (onlyIfAbsent) {
+                return ret;
+            }
+            WriteElement we = localStorage.writeSet.get(next);
+            if (we != null) {
+                localStorage.putIntoWriteSet(next, we.next, val, we.deleted, 0);
+            } else {
+                localStorage.putIntoWriteSet(next, getNext(next, localStorage), val, false, 0);
+            }
+            return ret;
+        }
+
+        // not found
+        LNode node = new LNode(key, val);
+        node.next = next;
+        localStorage.putIntoWriteSet(pred, node, getVal(pred, localStorage), false, 0);
+        return null;
+    }
+
+    /**
+     * @see LinkedList#remove(int)
+     */
+    public Object remove(int key) throws TXLibExceptions.AbortException {
+
+        LocalStorage localStorage = domain.localStorage();
+
+        // SINGLETON
+        if (!localStorage.TX) {
+            domain.beginSingleton(localStorage);
+            try {
+                return removeSingleton(key);
+            } finally {
+                domain.endSingleton(localStorage);
+            }
+        }
+
+        // TX
+        localStorage.setWriting();
+
+        LNode pred = getPred(key, false, localStorage);
+        LNode next = getNext(pred, localStorage);
+
+        if (!hasKey(next, key)) {
+            return null;
+        }
+        localStorage.addToReadSet(next);
+        Object ret = getVal(next, localStorage);
+        localStorage.putIntoWriteSet(pred, getNext(next, localStorage), getVal(pred, localStorage), false, 0);
+        localStorage.putIntoWriteSet(next, null, ret, true, 0);
+        return ret;
+    }
+
+    public Object remove(Integer key) throws TXLibExceptions.AbortException {
+        if (key == null)
+            throw new NullPointerException();
+        return remove(key.intValue());
+    }
+
+    /**
+     * @see LinkedList#get(int)
+     */
+    public Object get(int key) throws TXLibExceptions.AbortException {
+
+        LocalStorage localStorage = domain.localStorage();
+
+        // SINGLETON
+        if (!localStorage.TX) {
+            return getSingleton(key, true);
+        }
+
+        // TX
+        LNode pred = getPred(key, false, localStorage);
+        LNode next = getNext(pred, localStorage);
+
+        if (!hasKey(next, key)) {
+            return null;
+        }
+        // its value is read too, and a put changes only its version
+        localStorage.addToReadSet(next);
+        return getVal(next, localStorage);
+    }
+
+    public Object get(Integer key) throws TXLibExceptions.AbortException {
+        if (key == null)
+            throw new NullPointerException();
+        return get(key.intValue());
+    }
+
+    /**
+     * @see LinkedList#containsKey(int)
+     */
+    public boolean containsKey(int key) throws TXLibExceptions.AbortException {
+
+        LocalStorage localStorage = domain.localStorage();
+
+        // SINGLETON
+        if (!localStorage.TX) {
+            return getSingleton(key, false) != null;
+        }
+
+        // TX
+        LNode pred = getPred(key, false, localStorage);
+        LNode next = getNext(pred, localStorage);
+
+        // pred, in the read set, changes version if key is inserted or removed after it
+        return hasKey(next, key);
+    }
+
+    public boolean containsKey(Integer key) throws TXLibExceptions.AbortException {
+        if (key == null)
+            throw new NullPointerException();
+        return containsKey(key.intValue());
+    }
+
+    /**
+     * @effects Associates each key with the value at the same position, as put() would
+     * 			one key after the other.
+     *
+     * @throws  NullPointerException if a value is null
+     * @throws  IllegalArgumentException if there are not as many values as keys
+     */
+    public void putAll(int[] keys, Object[] vals) throws TXLibExceptions.AbortException {
+        if (keys.length != vals.length)
+            throw new IllegalArgumentException("not as many values as keys");
+        for (Object val : vals) {
+            if (val == null)
+                throw new NullPointerException();
+        }
+        for (int i = 0; i < keys.length; i++) {
+            put(keys[i], vals[i], false);
+        }
+    }
+
+    /**
+     * @effects Removes the mappings for the keys that are present, as remove() would
+     * 			one key after the other.
+     *
+     * @return  The number of mappings removed
+     */
+    public int removeAll(int[] keys) throws TXLibExceptions.AbortException {
+        int removed = 0;
+        for (int key : keys) {
+            if (remove(key) != null) {
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    public RangeIterator<Object> iterator() throws TXLibExceptions.AbortException {
+        return iterator(true);
+    }
+
+    /**
+     * @return  A RangeIterator over the keys in a range, walking the whole list.
+     * 			In a transaction and if atomic, every node it passes is read as by get(),
+     * 			so the transaction aborts if a key is later put into the range.
+     * 			The buckets it passes are read too, only the ones writes linked.
+     */
+    public RangeIterator<Object> iterator(boolean atomic) throws TXLibExceptions.AbortException {
+
+        LocalStorage localStorage = domain.localStorage();
+        final boolean tx = localStorage.TX && atomic;
+
+        return new RangeIterator<Object>() {
+
+            private LNode node; // the last node passed
+            private LNode found; // the next node in the range, if already found
+            private int start;
+            private int end;
+
+            private void reset(int start, int end) {
+                this.start = start;
+                this.end = end;
+                node = head;
+                found = null;
+                if (tx) {
+                    domain.localStorage().addToReadSet(node);
+                }
+            }
+
+            @Override
+            public void init() {
+                reset(Integer.MIN_VALUE, Integer.MAX_VALUE);
+            }
+
+            @Override
+            public void init_from(Object start) {
+                reset((int) start, Integer.MAX_VALUE);
+            }
+
+            @Override
+            public void init_upTo(Object end) {
+                reset(Integer.MIN_VALUE, (int) end);
+            }
+
+            @Override
+            public void init_range(Object start, Object end) {
+                reset((int) start, (int) end);
+            }
+
+            private LNode advance() throws TXLibExceptions.AbortException {
+                LocalStorage localStorage = tx ? domain.localStorage() : null;
+                while (true) {
+                    LNode next;
+                    if (tx) {
+                        next = getNext(node, localStorage);
+                    } else {
+                        next = nextSingleton(node);
+                        if (next == RESTART) {
+                            // removed (so it is a key), go on from the last node up to it
+                            Bucket[] table = buckets;
+                            Bucket bucket = bucketOf(table, hash(node.key) & (table.length - 1), false);
+                            node = seekSingleton(bucket, order(node) + 1);
+                            continue;
+                        }
+                    }
+                    if (next == null) {
+                        return null;
+                    }
+                    if (tx) {
+                        localStorage.addToReadSet(next);
+                    }
+                    node = next;
+                    if (!(next instanceof Bucket) && next.key >= start && next.key <= end) {
+                        return next;
+                    }
+                }
+            }
+
+            @Override
+            public boolean hasNext() {
+                if (found == null) {
+                    found = advance();
+                }
+                return found != null;
+            }
+
+            @Override
+            public Object next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                LNode n = found;
+                found = null;
+                return tx ? getVal(n, domain.localStorage()) : n.val;
+            }
+
+        };
+    }
+
+}
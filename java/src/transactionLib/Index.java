@@ -33,14 +33,18 @@ package transactionLib;
 import sun.misc.Unsafe;
 
 import java.lang.reflect.Field;
-import java.util.Random;
 
-public class Index {
+/**
+ * The index of ConcurrentSkipListMap: every level of an indexed node is an index node
+ * linked to the one below it.
+ */
+public class Index extends ListIndex {
 
     /**
-     * Special value used to identify base-level header
+     * Steps along a level after which addAll() and removeAll()
+     * stop walking from the previous position and descend from the top
      */
-    private static final Object BASE_HEADER = new Object();
+    private static final int MAX_FINGER_HOPS = 32;
     /**
      * Unsafe mechanics
      */
@@ -69,7 +73,11 @@ public class Index {
      * Constructor
      */
     Index(LNode headNode) {
-        headNode.val = BASE_HEADER;
+        this(headNode, DEFAULT_INDEX_PROBABILITY, DEFAULT_PROMOTION_PROBABILITY, DEFAULT_MAX_LEVEL);
+    }
+
+    Index(LNode headNode, double indexProbability, double promotionProbability, int maxLevel) {
+        super(headNode, indexProbability, promotionProbability, maxLevel);
         head = new HeadIndex(headNode, null, null, 1);
     }
 
@@ -88,7 +96,7 @@ public class Index {
      *
      * @return a predecessor of key
      */
-    private LNode findPredecessor(LNode node) {
+    private LNode findPredecessor(int key) {
         for (; ; ) {
             for (IndexNode q = head, r = q.right, d; ; ) {
                 if (r != null) {
@@ -99,7 +107,7 @@ public class Index {
                         r = q.right;         // reread r
                         continue;
                     }
-                    if (node.key.compareTo(n.key) > 0) {
+                    if (key > r.key) {
                         q = r;
                         r = r.right;
                         continue;
@@ -113,93 +121,256 @@ public class Index {
         }
     }
 
-
+    @Override
     void add(final LNode nodeToAdd) {
         LNode node = nodeToAdd;
         if (node == null)
             throw new NullPointerException();
-        int rnd = RandomNumberGenerator.randomNumber();
-        if ((rnd & 0x80000001) == 0) { // test highest and lowest bits
-            int level = 1, max;
-            while (((rnd >>>= 1) & 1) != 0)
-                ++level;
-            IndexNode idx = null;
-            HeadIndex h = head;
-            if (level <= (max = h.level)) {
-                for (int i = 1; i <= level; ++i)
-                    idx = new IndexNode(node, idx, null);
-            } else { // try to grow by one level
-                level = max + 1; // hold in array and later pick the one to use
-                IndexNode[] idxs = new IndexNode[level + 1];
-                for (int i = 1; i <= level; ++i)
-                    idxs[i] = idx = new IndexNode(node, idx, null);
-                for (; ; ) {
-                    h = head;
-                    int oldLevel = h.level;
-                    if (level <= oldLevel) // lost race to add level
-                        break;
-                    HeadIndex newh = h;
-                    LNode oldbase = h.node;
-                    for (int j = oldLevel + 1; j <= level; ++j)
-                        newh = new HeadIndex(oldbase, newh, idxs[j], j);
-                    if (casHead(h, newh)) {
-                        h = newh;
-                        idx = idxs[level = oldLevel];
-                        break;
-                    }
+        int level = randomLevel();
+        if (level > 0 && node.markIndexed())
+            insert(node, level);
+    }
+
+    private void insert(final LNode node, int level) {
+        int max;
+        IndexNode idx = null;
+        HeadIndex h = head;
+        if (level <= (max = h.level)) {
+            for (int i = 1; i <= level; ++i)
+                idx = new IndexNode(node, idx, null);
+        } else { // try to grow by one level
+            level = max + 1; // hold in array and later pick the one to use
+            IndexNode[] idxs = new IndexNode[level + 1];
+            for (int i = 1; i <= level; ++i)
+                idxs[i] = idx = new IndexNode(node, idx, null);
+            for (; ; ) {
+                h = head;
+                int oldLevel = h.level;
+                if (level <= oldLevel) // lost race to add level
+                    break;
+                HeadIndex newh = h;
+                LNode oldbase = h.node;
+                for (int j = oldLevel + 1; j <= level; ++j)
+                    newh = new HeadIndex(oldbase, newh, idxs[j], j);
+                if (casHead(h, newh)) {
+                    h = newh;
+                    idx = idxs[level = oldLevel];
+                    break;
                 }
             }
-            // find insertion points and splice in
-            splice:
-            for (int insertionLevel = level; ; ) {
-                int j = h.level;
-                for (IndexNode q = h, r = q.right, t = idx; ; ) {
-                    if (q == null || t == null)
-                        break splice;
-                    if (r != null) {
-                        LNode n = r.node;
-                        // compare before deletion check avoids needing recheck
-                        int c = node.key.compareTo(n.key);
-                        if (n.val == null) {
-                            if (!q.unlink(r))
-                                break;
-                            r = q.right;
-                            continue;
-                        }
-                        if (c > 0) {
-                            q = r;
-                            r = r.right;
-                            continue;
-                        }
+        }
+        // find insertion points and splice in
+        splice:
+        for (int insertionLevel = level; ; ) {
+            int j = h.level;
+            for (IndexNode q = h, r = q.right, t = idx; ; ) {
+                if (q == null || t == null)
+                    break splice;
+                if (r != null) {
+                    LNode n = r.node;
+                    // compare before deletion check avoids needing recheck
+                    boolean c = node.key > r.key;
+                    if (n.val == null) {
+                        if (!q.unlink(r))
+                            break;
+                        r = q.right;
+                        continue;
                     }
-
-                    if (j == insertionLevel) {
-                        if (!q.link(r, t))
-                            break; // restart
-                        if (t.node.val == null) {
-                            break splice;
-                        }
-                        if (--insertionLevel == 0)
-                            break splice;
+                    if (c) {
+                        q = r;
+                        r = r.right;
+                        continue;
                     }
+                }
 
-                    if (--j >= insertionLevel && j < level)
-                        t = t.down;
-                    q = q.down;
-                    r = q.right;
+                if (j == insertionLevel) {
+                    if (!q.link(r, t))
+                        break; // restart
+                    if (t.node.val == null) {
+                        break splice;
+                    }
+                    if (--insertionLevel == 0)
+                        break splice;
                 }
+
+                if (--j >= insertionLevel && j < level)
+                    t = t.down;
+                q = q.down;
+                r = q.right;
             }
         }
     }
 
+    @Override
     void remove(final LNode node) {
         if (node == null)
             throw new NullPointerException();
-        findPredecessor(node); // clean index
+        findPredecessor(node.key); // clean index
+        if (head.right == null)
+            tryReduceLevel();
+    }
+
+    /**
+     * Adds nodes[from..to), sorted by increasing key, as add() would one by one.
+     * The search for each node starts, at every level, from where the search
+     * for the previous one ended, instead of descending from the top.
+     * If the index loses levels meanwhile, the rest are inserted as by add().
+     */
+    @Override
+    void addAll(final LNode[] nodes, int from, int to) {
+        IndexNode[] fingers = new IndexNode[maxLevel + 1]; // the head has at most maxLevel levels
+        boolean shrank = false;
+        nodes:
+        for (int i = from; i < to; i++) {
+            LNode node = nodes[i];
+            int level = randomLevel();
+            if (level == 0 || !node.markIndexed())
+                continue;
+            if (shrank || level > head.level) {
+                insert(node, level); // grows the index
+                continue;
+            }
+            IndexNode idx = null;
+            for (int j = 1; j <= level; ++j)
+                idx = new IndexNode(node, idx, null);
+            // link top-down, like insert()
+            for (int j = level; j >= 1; --j, idx = idx.down) {
+                for (; ; ) {
+                    IndexNode q = findPredecessorFrom(node.key, j, fingers);
+                    if (q == null) {
+                        // the index shrank meanwhile: levels j and up are gone, with the
+                        // ones linked above, so insert levels 1 to j afresh, and the rest by insert()
+                        shrank = true;
+                        insert(node, j);
+                        continue nodes;
+                    }
+                    IndexNode r = q.right;
+                    if (r != null && (r.key < node.key || r.node.val == null))
+                        continue; // changed since the search
+                    if (q.link(r, idx))
+                        break;
+                }
+                fingers[j] = idx;
+                if (node.val == null)
+                    break; // deleted meanwhile
+            }
+        }
+    }
+
+    /**
+     * Cleans the index of nodes[from..to), sorted by increasing key,
+     * as remove() would one by one, reusing searches like addAll().
+     */
+    @Override
+    void removeAll(final LNode[] nodes, int from, int to) {
+        IndexNode[] fingers = new IndexNode[maxLevel + 1];
+        for (int i = from; i < to; i++) {
+            int key = nodes[i].key;
+            for (int j = head.level; j >= 1; --j) {
+                // walking up to key unlinks the index nodes of deleted nodes
+                if (findPredecessorFrom(key, j, fingers) == null)
+                    break;
+            }
+        }
         if (head.right == null)
             tryReduceLevel();
     }
 
+    /**
+     * Walks every level from its head, unlinking the index nodes of deleted nodes.
+     */
+    @Override
+    void clean() {
+        for (IndexNode h = head; h != null; h = h.down) {
+            for (IndexNode q = h, r = q.right; r != null; ) {
+                if (r.node.val == null) {
+                    if (!q.unlink(r))
+                        q = h; // q was deleted, restart the level
+                    r = q.right;
+                    continue;
+                }
+                q = r;
+                r = r.right;
+            }
+        }
+        if (head.right == null)
+            tryReduceLevel();
+    }
+
+    /**
+     * Like findPredecessor, for a single level, starting from fingers[level]
+     * when it is close enough. Updates fingers[level].
+     *
+     * @return the index node at level right before key, or null if there is no such level
+     */
+    private IndexNode findPredecessorFrom(int key, int level, IndexNode[] fingers) {
+        IndexNode q = fingers[level];
+        int hops = 0;
+        if (q == null || q.node.val == null || q.key >= key) {
+            q = descend(key, level);
+            hops = -1; // no limit when starting from the top
+        }
+        for (IndexNode r = (q == null) ? null : q.right; r != null; ) {
+            if (r.node.val == null) {
+                if (!q.unlink(r)) {
+                    q = descend(key, level); // q was deleted
+                    hops = -1;
+                    if (q == null)
+                        break;
+                }
+                r = q.right;
+                continue;
+            }
+            if (key <= r.key)
+                break;
+            if (hops >= 0 && ++hops > MAX_FINGER_HOPS) {
+                q = descend(key, level); // the finger is too far behind
+                hops = -1;
+                if (q == null)
+                    break;
+                r = q.right;
+                continue;
+            }
+            q = r;
+            r = r.right;
+        }
+        fingers[level] = q;
+        return q;
+    }
+
+    /**
+     * @return an index node at level before key, found from the top,
+     * or null if the index has no such level
+     */
+    private IndexNode descend(int key, int level) {
+        for (; ; ) {
+            HeadIndex h = head;
+            if (h.level < level)
+                return null;
+            int j = h.level;
+            for (IndexNode q = h, r = q.right; ; ) {
+                if (r != null) {
+                    if (r.node.val == null) {
+                        if (!q.unlink(r))
+                            break; // restart
+                        r = q.right;
+                        continue;
+                    }
+                    if (key > r.key) {
+                        q = r;
+                        r = r.right;
+                        continue;
+                    }
+                }
+                if (j == level)
+                    return q;
+                q = q.down;
+                r = q.right;
+                j--;
+            }
+        }
+    }
+
     /**
      * Possibly reduce head level if it has no nodes.  This method can
      * (rarely) make mistakes, in which case levels can disappear even
@@ -235,50 +406,15 @@ public class Index {
             casHead(d, h);   // try to backout
     }
 
-    LNode getPred(final LNode node) {
-        if (node == null)
-            throw new NullPointerException();
+    @Override
+    LNode getPred(final int key) {
         for (; ; ) {
-            LNode b = findPredecessor(node);
+            LNode b = findPredecessor(key);
             if (b.val != null) // not deleted
                 return b;
         }
     }
 
-    public static class RandomNumberGenerator {
-        /**
-         * Generates the initial random seed for the cheaper
-         * per-instance random number generators used in randomLevel.
-         */
-        private static final Random seedGenerator = new Random();
-
-        /**
-         * Seed for simple random number generator.
-         * Not volatile since it doesn't matter too much
-         * if different threads don't see updates.
-         */
-        private static int randomSeed = seedGenerator.nextInt() | 0x0100;
-
-        /**
-         * Returns a random number.
-         * Hardwired to k=1, p=0.5, max 31
-         * (see above and Pugh's "Skip List Cookbook", sec 3.4).
-         * <p>
-         * This uses the simplest of the generators described in
-         * George Marsaglia's "Xorshift RNGs" paper.
-         * This is not a high-quality generator but is acceptable here.
-         */
-        static int randomNumber() {
-            int x = randomSeed;
-            x ^= x << 13;
-            x ^= x >>> 17;
-            randomSeed = x ^= x << 5;
-            if (x == 0)
-                randomSeed = x = 1; // avoid zero
-            return x;
-        }
-    }
-
     /**
      * Index nodes represent the levels of the skip list.
      */
@@ -304,6 +440,7 @@ public class Index {
         }
 
         final LNode node;
+        final int key; // copied from node, so comparisons stay in the index node
         final IndexNode down;
         volatile IndexNode right;
 
@@ -312,6 +449,7 @@ public class Index {
          */
         IndexNode(LNode node, IndexNode down, IndexNode right) {
             this.node = node;
+            this.key = node.key;
             this.down = down;
             this.right = right;
         }
@@ -0,0 +1,79 @@
+package transactionLib;
+
+import java.util.Arrays;
+
+/**
+ * Index updates a transaction applies after it commits,
+ * kept as (index, node) pairs in arrays that are reset rather than re-allocated.
+ * All nodes are kept (no compression needed), so when they are applied
+ * the latest update to a node is also the last one to reach the index.
+ */
+public class IndexUpdates {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private ListIndex[] indexes = new ListIndex[INITIAL_CAPACITY];
+    private LNode[] nodes = new LNode[INITIAL_CAPACITY];
+    private int size = 0;
+
+    protected void add(ListIndex index, LNode node) {
+        if (size == nodes.length) {
+            indexes = Arrays.copyOf(indexes, size * 2);
+            nodes = Arrays.copyOf(nodes, size * 2);
+        }
+        indexes[size] = index;
+        nodes[size] = node;
+        size++;
+    }
+
+    protected int size() {
+        return size;
+    }
+
+    /**
+     * Adds the nodes to their indexes.
+     * Runs of nodes of the same index with increasing keys, as putAll() leaves,
+     * are added together.
+     */
+    protected void addToIndexes() {
+        for (int i = 0; i < size; ) {
+            int end = runEnd(i);
+            if (end == i + 1) {
+                indexes[i].add(nodes[i]);
+            } else {
+                indexes[i].addAll(nodes, i, end);
+            }
+            i = end;
+        }
+    }
+
+    /**
+     * Removes the nodes from their indexes, by runs like addToIndexes().
+     */
+    protected void removeFromIndexes() {
+        for (int i = 0; i < size; ) {
+            int end = runEnd(i);
+            if (end == i + 1) {
+                indexes[i].remove(nodes[i]);
+            } else {
+                indexes[i].removeAll(nodes, i, end);
+            }
+            i = end;
+        }
+    }
+
+    private int runEnd(int i) {
+        int end = i + 1;
+        while (end < size && indexes[end] == indexes[i] && nodes[end].key > nodes[end - 1].key) {
+            end++;
+        }
+        return end;
+    }
+
+    protected void clear() {
+        Arrays.fill(indexes, 0, size, null);
+        Arrays.fill(nodes, 0, size, null);
+        size = 0;
+    }
+
+}
@@ -1,166 +1,291 @@
 package transactionLib;
 
-import java.util.Objects;
-import java.util.concurrent.atomic.AtomicLong;
+import java.lang.reflect.Field;
+
+import sun.misc.Unsafe;
 
 public class LNode {
     private static final long lockMask = 0x1000000000000000L;
     private static final long deleteMask = 0x2000000000000000L;
-    private static final long singletonMask = 0x4000000000000000L;
-    private static final long versionNegMask = lockMask | deleteMask | singletonMask;
+    private static final long versionNegMask = lockMask | deleteMask;
     protected LNode next = null;
-    protected Integer key = null; // TODO use templates
+    protected int key; // primitive so traversals never dereference a boxed key
     protected Object val = null; // TODO maybe use templates
     // bit 60 is lock
     // bit 61 is deleted
-    // bit 62 is singleton
     // 0 is false, 1 is true
     // we are missing a bit because this is signed
-    private AtomicLong versionAndFlags = new AtomicLong();
+    // inline rather than an AtomicLong, to save an object and a dereference per node
+    private volatile long versionAndFlags = 0L;
+    // older states, only kept by lists built with a history length
+    protected volatile NodeVersion history = null;
+    // whether index entries may refer to the node, see markIndexed() and tryRetire()
+    private volatile int indexState = NOT_INDEXED;
+    private static final int NOT_INDEXED = 0;
+    private static final int INDEXED = 1;
+    private static final int RETIRED = 2;
+    // passed by a maintenance walk (see MaintainedIndex) without being indexed
+    private static final int WALKED = 3;
+    // threads waiting for the node to change (see Waiters), it is not reused meanwhile
+    private volatile int pins = 0;
+
+    /**
+     * Unsafe mechanics
+     */
+    private static final Unsafe UNSAFE;
+    private static final long versionAndFlagsOffset;
+    private static final long indexStateOffset;
+    private static final long pinsOffset;
+
+    static {
+        try {
+            Field f = Unsafe.class.getDeclaredField("theUnsafe");
+            f.setAccessible(true);
+            UNSAFE = (Unsafe) f.get(null);
+            versionAndFlagsOffset = UNSAFE.objectFieldOffset
+                    (LNode.class.getDeclaredField("versionAndFlags"));
+            indexStateOffset = UNSAFE.objectFieldOffset
+                    (LNode.class.getDeclaredField("indexState"));
+            pinsOffset = UNSAFE.objectFieldOffset
+                    (LNode.class.getDeclaredField("pins"));
+        } catch (Exception e) {
+            throw new Error(e);
+        }
+    }
 
-    public LNode(Integer key, Object val) {
+    public LNode(int key, Object val) {
     	this.key = key;
     	this.val = val;
     }
     
+    /**
+     * Resets a node taken from a pool (see Epochs) to the state of a new one.
+     */
+    protected void reuse(int key, Object val) {
+        this.next = null;
+        this.key = key;
+        this.val = val;
+        this.history = null;
+        this.versionAndFlags = 0L;
+        this.indexState = NOT_INDEXED;
+    }
+
+    /**
+     * Called by an index before it links an entry to the node.
+     *
+     * @return false if the node was retired, it must not be indexed then
+     */
+    protected boolean markIndexed() {
+        if (!Epochs.enabled) {
+            return true;
+        }
+        while (true) {
+            int s = indexState;
+            if (s == INDEXED) {
+                return true;
+            }
+            if (s == RETIRED) {
+                return false;
+            }
+            if (UNSAFE.compareAndSwapInt(this, indexStateOffset, s, INDEXED)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Called by a maintenance walk, which may index the node afterwards.
+     *
+     * @return true if no walk passed the node before, and it was neither indexed nor retired
+     */
+    protected boolean tryMarkWalked() {
+        return indexState == NOT_INDEXED && UNSAFE.compareAndSwapInt(this, indexStateOffset, NOT_INDEXED, WALKED);
+    }
+
+    /**
+     * Called once the node is unlinked from its list, to reuse it.
+     *
+     * @return true if no index entry refers to the node, and none ever will
+     */
+    protected void pin() {
+        UNSAFE.getAndAddInt(this, pinsOffset, 1);
+    }
+
+    protected void unpin() {
+        UNSAFE.getAndAddInt(this, pinsOffset, -1);
+    }
+
+    /**
+     * @return true if a parked thread watches the node, Epochs leaves it to the garbage collector then
+     */
+    protected boolean isPinned() {
+        return pins != 0;
+    }
+
+    protected boolean tryRetire() {
+        int s = indexState;
+        return (s == NOT_INDEXED || s == WALKED) && UNSAFE.compareAndSwapInt(this, indexStateOffset, s, RETIRED);
+    }
+
     protected boolean tryLock() {
-        long l = versionAndFlags.get();
+        long l = versionAndFlags;
         if ((l & lockMask) != 0) {
             return false;
         }
         long locked = l | lockMask;
-        return versionAndFlags.compareAndSet(l, locked);
+        return UNSAFE.compareAndSwapLong(this, versionAndFlagsOffset, l, locked);
     }
 
     protected void unlock() {
-        long l = versionAndFlags.get();
+        long l = versionAndFlags;
         assert ((l & lockMask) != 0);
         long unlocked = l & (~lockMask);
-        boolean ret = versionAndFlags.compareAndSet(l, unlocked);
+        boolean ret = UNSAFE.compareAndSwapLong(this, versionAndFlagsOffset, l, unlocked);
         assert (ret);
     }
 
     protected boolean isLocked() {
-        long l = versionAndFlags.get();
+        long l = versionAndFlags;
         return (l & lockMask) != 0;
     }
 
     protected boolean isDeleted() {
-        long l = versionAndFlags.get();
+        long l = versionAndFlags;
         return (l & deleteMask) != 0;
     }
 
     protected void setDeleted(boolean value) {
-        long l = versionAndFlags.get();
+        long l = versionAndFlags;
         assert ((l & lockMask) != 0);
         if (value) {
             l |= deleteMask;
-            versionAndFlags.set(l);
+            versionAndFlags = l;
             return;
         }
         l &= (~deleteMask);
-        versionAndFlags.set(l);
+        versionAndFlags = l;
     }
 
     protected boolean isLockedOrDeleted() {
-        long l = versionAndFlags.get();
+        long l = versionAndFlags;
         return ((l & deleteMask) != 0) || ((l & lockMask) != 0);
     }
 
-    protected boolean isSingleton() {
-        long l = versionAndFlags.get();
-        return (l & singletonMask) != 0;
-    }
-
-    protected void setSingleton(boolean value) {
-        long l = versionAndFlags.get();
-        assert ((l & lockMask) != 0);
-        if (value) {
-            l |= singletonMask;
-            versionAndFlags.set(l);
-            return;
-        }
-        l &= (~singletonMask);
-        versionAndFlags.set(l);
-    }
-
-    protected void setSingletonNoLockAssert(boolean value) {
-        long l = versionAndFlags.get();
-        if (value) {
-            l |= singletonMask;
-            versionAndFlags.set(l);
-            return;
-        }
-        l &= (~singletonMask);
-        versionAndFlags.set(l);
-    }
-
     protected long getVersion() {
-        return (versionAndFlags.get() & (~versionNegMask));
+        return (versionAndFlags & (~versionNegMask));
     }
 
     protected void setVersion(long version) {
-        long l = versionAndFlags.get();
+        long l = versionAndFlags;
         assert ((l & lockMask) != 0);
         l &= versionNegMask;
         l |= (version & (~versionNegMask));
-        versionAndFlags.set(l);
+        versionAndFlags = l;
     }
 
-    protected boolean isSameVersionAndSingleton(long version) {
-        long l = versionAndFlags.get();
-        if ((l & singletonMask) != 0) {
-            l &= (~versionNegMask);
-            return l == version;
-        }
-        return false;
+    // for nodes no other thread can see yet
+    protected void setVersionNoLockAssert(long version) {
+        long l = versionAndFlags;
+        l &= versionNegMask;
+        l |= (version & (~versionNegMask));
+        versionAndFlags = l;
     }
 
-    protected void setVersionAndSingleton(long version, boolean value) {
-        long l = versionAndFlags.get();
+    protected void setVersionAndDeleted(long version, boolean deleted) {
+        long l = versionAndFlags;
         assert ((l & lockMask) != 0);
         l &= versionNegMask;
         l |= (version & (~versionNegMask));
-        if (value) {
-            l |= singletonMask;
-            versionAndFlags.set(l);
-            return;
+        if (deleted) {
+            l |= deleteMask;
+        } else {
+            l &= (~deleteMask);
         }
-        l &= (~singletonMask);
-        versionAndFlags.set(l);
+        versionAndFlags = l;
     }
 
-    protected void setVersionAndSingletonNoLockAssert(long version, boolean value) {
-        long l = versionAndFlags.get();
-        l &= versionNegMask;
-        l |= (version & (~versionNegMask));
-        if (value) {
-            l |= singletonMask;
-            versionAndFlags.set(l);
-            return;
+    /**
+     * Spins while a writer holds the lock.
+     *
+     * @return the unlocked version and flags
+     */
+    protected long waitUnlocked() {
+        long l = versionAndFlags;
+        while ((l & lockMask) != 0) {
+            l = versionAndFlags;
         }
-        l &= (~singletonMask);
-        versionAndFlags.set(l);
+        return l;
+    }
+
+    protected long getVersionAndFlags() {
+        return versionAndFlags;
     }
 
-    protected void setVersionAndDeletedAndSingleton(long version, boolean deleted, boolean singleton) {
-        long l = versionAndFlags.get();
+    protected static boolean isDeleted(long versionAndFlags) {
+        return (versionAndFlags & deleteMask) != 0;
+    }
+
+    protected static boolean isVisibleAt(long versionAndFlags, long readVersion) {
+        return (versionAndFlags & (~versionNegMask)) <= readVersion;
+    }
+
+    /**
+     * Looks for the state of this node as of the read version.
+     * Only call it once the node was seen unlocked with a newer version.
+     *
+     * @return the state, NodeVersion.ABSENT if the node did not exist yet,
+     * or null if that state was pruned
+     */
+    protected NodeVersion historyAt(long readVersion) {
+        NodeVersion v = history;
+        while (v != null) {
+            if (v == NodeVersion.PRUNED) {
+                return null;
+            }
+            if (v.version <= readVersion) {
+                return v;
+            }
+            v = v.older;
+        }
+        return NodeVersion.ABSENT;
+    }
+
+    /**
+     * Saves the current state before a writer holding the lock changes it.
+     * States no snapshot can read any more are dropped.
+     *
+     * @param version the version the node is about to get
+     * @param oldest the oldest read version of a snapshot that may still run
+     * @param maxLength the number of states kept at most
+     */
+    protected void saveVersion(long version, long oldest, int maxLength) {
+        long l = versionAndFlags;
         assert ((l & lockMask) != 0);
-        l &= versionNegMask;
-        l |= (version & (~versionNegMask));
-        if (singleton) {
-            l |= singletonMask;
-        } else {
-            l &= (~singletonMask);
+        if (version <= oldest) {
+            history = null; // every snapshot will see the new state
+            return;
         }
-        if (deleted) {
-            l |= deleteMask;
-        } else {
-            l &= (~deleteMask);
+        NodeVersion saved = new NodeVersion(l & (~versionNegMask), (l & deleteMask) != 0, next, val);
+        NodeVersion v = history;
+        saved.older = v;
+        history = saved;
+        // keep states down to the first one the oldest snapshot sees
+        int length = 1;
+        v = saved;
+        while (v.older != null && v.older != NodeVersion.PRUNED) {
+            if (v.version <= oldest) {
+                v.older = null;
+                return;
+            }
+            if (length == maxLength) {
+                v.older = NodeVersion.PRUNED;
+                return;
+            }
+            length++;
+            v = v.older;
         }
-        versionAndFlags.set(l);
     }
-    
+
     @Override
     public String toString() {
     	return "(" + key + ", " + val + ")";
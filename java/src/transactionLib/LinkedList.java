@@ -3,8 +3,7 @@ package transactionLib;
 import sun.misc.Unsafe;
 
 import java.lang.reflect.Field;
-import java.util.HashMap;
-import java.util.Map.Entry;
+import java.util.Arrays;
 import java.util.NoSuchElementException;
 
 /**
@@ -42,13 +41,63 @@ public class LinkedList implements Iterable<Object> {
         }
     }
 
+    // list steps a batch operation takes from one key before it descends the index again
+    private static final int BATCH_HOPS = 32;
+
     protected LNode head = new LNode(Integer.MIN_VALUE, null); // protected (not private) for testing
-    protected Index index;
+    protected ListIndex index;
+    // older node states kept for snapshot reads, 0 keeps none
+    protected final int historyLength;
+    // whose transactions and clock this list uses
+    protected final TXDomain domain;
+    // removed nodes are reused by inserts (see Epochs), never with history
+    private final boolean recycle;
 
     public LinkedList() {
+        this(TXDomain.getDefault());
+    }
+
+    /**
+     * A list of the given domain: only transactions begun there use it (see TXDomain).
+     */
+    public LinkedList(TXDomain domain) {
+        this(domain, 0);
+    }
+
+    /**
+     * A list whose nodes keep up to historyLength older states,
+     * so that read-only transactions (see TX.TXbeginReadOnly) read a snapshot
+     * and only abort if a state they need was pruned.
+     * States are dropped as soon as no running snapshot can read them.
+     */
+    public LinkedList(int historyLength) {
+        this(TXDomain.getDefault(), historyLength);
+    }
+
+    public LinkedList(TXDomain domain, int historyLength) {
+        this(domain, historyLength, ListIndex.DEFAULT_INDEX_PROBABILITY, ListIndex.DEFAULT_PROMOTION_PROBABILITY,
+                ListIndex.DEFAULT_MAX_LEVEL);
+    }
+
+    /**
+     * A list whose index levels are drawn with the given parameters (see ListIndex).
+     * Indexing fewer nodes, or promoting them less, saves index memory
+     * at the price of longer searches along the list.
+     */
+    public LinkedList(int historyLength, double indexProbability, double promotionProbability, int maxLevel) {
+        this(TXDomain.getDefault(), historyLength, indexProbability, promotionProbability, maxLevel);
+    }
+
+    public LinkedList(TXDomain domain, int historyLength, double indexProbability, double promotionProbability,
+                      int maxLevel) {
+        if (domain == null)
+            throw new NullPointerException();
+        this.domain = domain;
         // TODO(GG) the comparator/index is a nested class, its code explicitly
         // ensures that head is the minimal element
-        index = new Index(head);
+        index = ListIndex.create(domain, head, indexProbability, promotionProbability, maxLevel);
+        this.historyLength = historyLength;
+        this.recycle = Epochs.enabled && historyLength == 0;
     }
 
     // for debug only
@@ -66,10 +115,10 @@ public class LinkedList implements Iterable<Object> {
 
     // for debug only
     private void printWriteSet() {
-        HashMap<LNode, WriteElement> ws = TX.lStorage.get().writeSet;
-        for (Entry<LNode, WriteElement> entry : ws.entrySet()) {
-            LNode node = entry.getKey();
-            WriteElement we = entry.getValue();
+        WriteSet ws = domain.localStorage().writeSet;
+        for (int i = 0; i < ws.size(); i++) {
+            LNode node = ws.getNode(i);
+            WriteElement we = ws.getElement(i);
             if (we.next != null) {
                 System.out.print(node.key + "->" + we.next.key + " , ");
             }
@@ -77,54 +126,188 @@ public class LinkedList implements Iterable<Object> {
         System.out.print("\n");
     }
 
-    private LNode getPredSingleton(LNode n) {
-        LNode pred = index.getPred(n);
+    // singletons run in an epoch, so that the nodes they reach are not reused meanwhile
+    private void enter(LocalStorage localStorage) {
+        if (recycle) {
+            domain.epochs.enter(localStorage);
+        }
+    }
+
+    private void exit(LocalStorage localStorage) {
+        if (recycle) {
+            domain.epochs.exit(localStorage);
+        }
+    }
+
+    private LNode newNode(int key, Object val, LocalStorage localStorage) {
+        if (recycle) {
+            return domain.epochs.allocate(localStorage, key, val);
+        }
+        return new LNode(key, val);
+    }
+
+    // called once node is unlinked and unlocked
+    private void retire(LNode node, LocalStorage localStorage) {
+        if (recycle) {
+            domain.epochs.retire(localStorage, node);
+        }
+    }
+
+    private LNode getPredSingleton(int key) {
+        LNode pred = index.getPred(key);
         while (pred.isLockedOrDeleted()) {
             if (pred == head) {
                 return head;
             }
-            pred = index.getPred(pred);
+            pred = index.getPred(pred.key);
         }
         return pred;
     }
 
-    private Object getVal(LNode n, LocalStorage localStorage) { 	
+    private boolean isSnapshot(LocalStorage localStorage) throws TXLibExceptions.AbortException {
+        if (historyLength == 0 || !localStorage.declaredReadOnly) {
+            return false;
+        }
+        if (!localStorage.snapshot) {
+            // the writers do not keep the states it needs, it begins again with a snapshot
+            localStorage.readsHistory = true;
+            throw TX.abort(localStorage);
+        }
+        return true;
+    }
+
+    // called with the node locked, before it changes
+    private void saveVersion(LNode node, long version) {
+        node.saveVersion(version, domain.snapshots.oldest(version), historyLength);
+    }
+
+    private boolean existsAt(LNode n, LocalStorage localStorage) throws TXLibExceptions.AbortException {
+        long l = n.waitUnlocked();
+        if (LNode.isVisibleAt(l, localStorage.readVersion)) {
+            return !LNode.isDeleted(l);
+        }
+        NodeVersion v = n.historyAt(localStorage.readVersion);
+        if (v == null) {
+            throw TX.abort(localStorage);
+        }
+        return v != NodeVersion.ABSENT && !v.deleted;
+    }
+
+    // the state of n as of the read version, when the current one is newer
+    private NodeVersion snapshotOf(LNode n, LocalStorage localStorage) throws TXLibExceptions.AbortException {
+        NodeVersion v = n.historyAt(localStorage.readVersion);
+        if (v == null || v == NodeVersion.ABSENT) {
+            throw TX.abort(localStorage);
+        }
+        return v;
+    }
+
+    private LNode getPredSnapshot(int key, LocalStorage localStorage) throws TXLibExceptions.AbortException {
+        LNode pred = index.getPred(key);
+        while (pred != head && !existsAt(pred, localStorage)) {
+            pred = index.getPred(pred.key);
+        }
+        return pred;
+    }
+
+    private LNode getNextSnapshot(LNode n, LocalStorage localStorage) throws TXLibExceptions.AbortException {
+        while (true) {
+            // a writer holding the lock may have a version older than ours
+            long l = n.waitUnlocked();
+            if (!LNode.isVisibleAt(l, localStorage.readVersion)) {
+                return snapshotOf(n, localStorage).next;
+            }
+            unsafe.loadFence();
+            LNode next = n.next;
+            unsafe.loadFence();
+            if (n.getVersionAndFlags() == l) {
+                return next;
+            }
+        }
+    }
+
+    private Object getValSnapshot(LNode n, LocalStorage localStorage) throws TXLibExceptions.AbortException {
+        while (true) {
+            long l = n.waitUnlocked();
+            if (!LNode.isVisibleAt(l, localStorage.readVersion)) {
+                return snapshotOf(n, localStorage).val;
+            }
+            unsafe.loadFence();
+            Object val = n.val;
+            unsafe.loadFence();
+            if (n.getVersionAndFlags() == l) {
+                return val;
+            }
+        }
+    }
+
+    /**
+     * Aborts unless n, just read, was not changed since the read version.
+     * A version newer than the read version extends it if it can (see TX.extend).
+     * The extension only checks the read set, so an operation adds the nodes
+     * its result depends on to the read set before reading them further.
+     *
+     * @return false if the read version was extended, n must then be read again
+     */
+    private boolean validate(LNode n, LocalStorage localStorage) throws TXLibExceptions.AbortException {
+        if (n.isLocked()) {
+            // abort TX
+            throw TX.abort(localStorage);
+        }
+        long version = n.getVersion();
+        if (version > localStorage.readVersion) {
+            if (TX.extend(localStorage, version)) {
+                return false;
+            }
+            throw TX.abort(localStorage);
+        }
+        return true;
+    }
+
+    private Object getVal(LNode n, LocalStorage localStorage) throws TXLibExceptions.AbortException {
+        if (isSnapshot(localStorage)) {
+            return getValSnapshot(n, localStorage);
+        }
         WriteElement we = localStorage.writeSet.get(n);
         if (we != null) {
             return we.val;
         }
-        return n.val;
+        // validated like next: once the read version is extended, a writer holding n
+        // may commit with a version it covers, and a value read before would pass commit
+        while (true) {
+            if (n.isLocked()) {
+                throw TX.abort(localStorage);
+            }
+            unsafe.loadFence();
+            Object val = n.val;
+            unsafe.loadFence();
+            if (validate(n, localStorage)) {
+                return val;
+            }
+        }
     }
 
-    private LNode getPred(LNode n, LocalStorage localStorage) throws TXLibExceptions.AbortException {
-        LNode pred = index.getPred(n);
+    private LNode getPred(int key, LocalStorage localStorage) throws TXLibExceptions.AbortException {
+        if (isSnapshot(localStorage)) {
+            return getPredSnapshot(key, localStorage);
+        }
+        LNode pred = index.getPred(key);
         while (true) {
-            if (pred.isLocked() || pred.getVersion() > localStorage.readVersion) {
-                // abort TX
-                localStorage.TX = false;
-                TXLibExceptions excep = new TXLibExceptions();
-                throw excep.new AbortException();
-            }
-            if (pred.isSameVersionAndSingleton(localStorage.readVersion)) {
-                // TODO in the case of a thread running singleton and then TX
-                // this TX will abort once but for no reason
-                TX.incrementAndGetVersion();
-                localStorage.TX = false;
-                TXLibExceptions excep = new TXLibExceptions();
-                throw excep.new AbortException();
+            if (!validate(pred, localStorage)) {
+                continue; // check pred again
             }
             WriteElement we = localStorage.writeSet.get(pred);
             if (we != null) {
                 if (we.deleted) {
                     // if you deleted it earlier
                     assert (pred != head);
-                    pred = index.getPred(pred);
+                    pred = index.getPred(pred.key);
                     continue;
                 }
             }
             if (pred.isDeleted()) {
                 assert (pred != head);
-                pred = index.getPred(pred);
+                pred = index.getPred(pred.key);
             } else {
                 return pred;
             }
@@ -132,41 +315,57 @@ public class LinkedList implements Iterable<Object> {
     }
 
     private LNode getNext(LNode n, LocalStorage localStorage) throws TXLibExceptions.AbortException {
+        if (isSnapshot(localStorage)) {
+            return getNextSnapshot(n, localStorage);
+        }
         // first try to read from private write set
         WriteElement we = localStorage.writeSet.get(n);
         if (we != null) {
             return we.next;
         }
 
-        // because we don't read next and locked at once,
-        // we first see if locked, then read next and then re-check locked
-        if (n.isLocked()) {
-            // abort TX
-            localStorage.TX = false;
-            TXLibExceptions excep = new TXLibExceptions();            
-            throw excep.new AbortException();
-        }
-        unsafe.loadFence();
-        LNode next = n.next;
-        unsafe.loadFence();
-        if (n.isLocked() || n.getVersion() > localStorage.readVersion) {
-            // abort TX
-            localStorage.TX = false;
-            TXLibExceptions excep = new TXLibExceptions();
-            throw excep.new AbortException();
+        while (true) {
+            // because we don't read next and locked at once,
+            // we first see if locked, then read next and then re-check locked
+            if (n.isLocked()) {
+                // abort TX
+                throw TX.abort(localStorage);
+            }
+            unsafe.loadFence();
+            LNode next = n.next;
+            unsafe.loadFence();
+            if (validate(n, localStorage)) {
+                return next;
+            }
+            if (n.isDeleted()) {
+                // removed since we reached it, its next leads nowhere
+                throw TX.abort(localStorage);
+            }
+        }
+    }
+
+    // called with pred locked, links the chain first..last after it
+    private void insertSingleton(LNode pred, LNode first, LNode last) {
+        long ver = domain.singletonVersion();
+        last.next = pred.next;
+        for (LNode n = first; ; n = n.next) {
+            n.setVersionNoLockAssert(ver);
+            if (n == last) {
+                break;
+            }
         }
-        if (n.isSameVersionAndSingleton(localStorage.readVersion)) {
-            TX.incrementAndGetVersion();
-            localStorage.TX = false;
-            TXLibExceptions excep = new TXLibExceptions();
-            throw excep.new AbortException();
+        if (historyLength > 0) {
+            // snapshots must not see the chain through pred
+            saveVersion(pred, ver);
         }
-        return next;
+        pred.next = first;
+        // so that a transaction that read pred.next before sees the insert
+        pred.setVersion(ver);
     }
 
-    private Object putSingleton(Integer key, Object val) {
+    private Object putSingleton(int key, Object val, LocalStorage localStorage) {
 
-        LNode n = new LNode(key, val);
+        LNode n = null; // only allocated once the key is known to be absent
 
         LNode pred;
         LNode next;
@@ -175,7 +374,7 @@ public class LinkedList implements Iterable<Object> {
 
             boolean startOver = false;
 
-            pred = getPredSingleton(n);
+            pred = getPredSingleton(key);
             if (pred.isLocked()) {
                 continue;
             }
@@ -195,28 +394,34 @@ public class LinkedList implements Iterable<Object> {
                     break;
                 }
 
-                if (next.key.compareTo(key) == 0) {
+                if (next.key == key) {
                     // the key exists, change to new value
-                    LNode node = pred.next;
-                    if (node.tryLock()) {
+                    LNode node = pred.next; // null if a transaction removed pred meanwhile
+                    if (node != null && node.tryLock()) {
 
-                        if (node.key.compareTo(key) != 0 || node != next || node.isDeleted()) {
+                        if (node.key != key || node != next || node.isDeleted()) {
                             node.unlock();
                             startOver = true;
                             break;
                         }
+                        long ver = domain.singletonVersion();
+                        if (historyLength > 0) {
+                            saveVersion(node, ver);
+                        }
                         Object ret = node.val;
                         node.val = val;
-                        node.setSingleton(true);
-                        node.setVersion(TX.getVersion());
+                        node.setVersion(ver);
                         node.unlock();
                         return ret; // return previous value associated with key
                     } else {
                         startOver = true;
                         break;
                     }
-                } else if (next.key.compareTo(key) > 0) {
+                } else if (next.key > key) {
                     // key doesn't exist, perform insert
+                    if (n == null) {
+                        n = newNode(key, val, localStorage);
+                    }
                     if (pred.tryLock()) {
 
                         if (pred.isDeleted() || next != pred.next) {
@@ -225,9 +430,7 @@ public class LinkedList implements Iterable<Object> {
                             break;
                         }
 
-                        n.next = pred.next;
-                        pred.next = n;
-                        n.setVersionAndSingletonNoLockAssert(TX.getVersion(), true);
+                        insertSingleton(pred, n, n);
                         pred.unlock();
                         index.add(n);
                         return null;
@@ -263,6 +466,9 @@ public class LinkedList implements Iterable<Object> {
 
             // all are strictly less than key
             // put at end
+            if (n == null) {
+                n = newNode(key, val, localStorage);
+            }
             if (pred.tryLock()) {
 
                 if (pred.isDeleted() || pred.next != null) {
@@ -270,7 +476,7 @@ public class LinkedList implements Iterable<Object> {
                     continue;
                 }
 
-                pred.next = n;
+                insertSingleton(pred, n, n);
                 pred.unlock();
                 index.add(n);
                 return null;
@@ -292,31 +498,49 @@ public class LinkedList implements Iterable<Object> {
 	 */
     public Object put(Integer key, Object val) throws TXLibExceptions.AbortException {
 
-        if (key == null || val == null)
+        if (key == null)
+            throw new NullPointerException();
+
+        return put(key.intValue(), val);
+    }
+
+    /**
+     * Same as {@link #put(Integer, Object)}, without boxing the key.
+     *
+     * @throws  NullPointerException if the specified value is null
+     */
+    public Object put(int key, Object val) throws TXLibExceptions.AbortException {
+
+        if (val == null)
             throw new NullPointerException();
 
         // Get transaction local storage (write-set, read-set)
-        LocalStorage localStorage = TX.lStorage.get();
+        LocalStorage localStorage = domain.localStorage();
 
         // if called by a singleton
         if (!localStorage.TX) {
-            return putSingleton(key, val);
+            domain.beginSingleton(localStorage);
+            enter(localStorage);
+            try {
+                return putSingleton(key, val, localStorage);
+            } finally {
+                exit(localStorage);
+                domain.endSingleton(localStorage);
+            }
         }
 
-        localStorage.readOnly = false;
+        localStorage.setWriting();
 
-        LNode node = new LNode(key, val);
-
-        LNode pred = getPred(node, localStorage);
+        LNode pred = getPred(key, localStorage);
         LNode next = getNext(pred, localStorage);
         boolean found = false;
 
         while (next != null) {
-            if (next.key.compareTo(key) == 0) {
+            if (next.key == key) {
                 found = true;
                 break; 
             } 
-            else if (next.key.compareTo(key) < 0) {
+            else if (next.key < key) {
                 pred = next;
                 next = getNext(pred, localStorage);
             } 
@@ -325,30 +549,35 @@ public class LinkedList implements Iterable<Object> {
         }
 
         if (found) {
+            // add to read set before reading it, see validate
+            localStorage.addToReadSet(next);
+            Object ret = getVal(next, localStorage);
             WriteElement we = localStorage.writeSet.get(next);
             if (we != null) {
                 // if it is already in write set then just change val
-                localStorage.putIntoWriteSet(next, we.next, val, we.deleted);
+                localStorage.putIntoWriteSet(next, we.next, val, we.deleted, historyLength);
             } 
             else {
-                localStorage.putIntoWriteSet(next, next.next, val, false);
+                localStorage.putIntoWriteSet(next, getNext(next, localStorage), val, false, historyLength);
             }
-            // add to read set
-            localStorage.readSet.add(next);
             if (TX.DEBUG_MODE_LL) {
                 System.out.println("put key " + key + ":");
                 printWriteSet();
             }
-            return next.val;
+            return ret;
         }
 
         // not found
-        node.next = next;
-        localStorage.putIntoWriteSet(pred, node, getVal(pred, localStorage), false);
-        localStorage.addToIndexAdd(this, node);
-
         // add to read set
-        localStorage.readSet.add(pred);
+        localStorage.addToReadSet(pred);
+        LNode node = newNode(key, val, localStorage);
+        node.next = next;
+        localStorage.putIntoWriteSet(pred, node, getVal(pred, localStorage), false, historyLength);
+        if (historyLength > 0) {
+            // so that the new node gets the write version, and no history
+            localStorage.putIntoWriteSet(node, next, val, false, 0);
+        }
+        localStorage.addToIndexAdd(index, node);
 
         if (TX.DEBUG_MODE_LL) {
             System.out.println("put key " + key + ":");
@@ -358,9 +587,9 @@ public class LinkedList implements Iterable<Object> {
         return null;
     }
 
-    private Object putIfAbsentSingleton(Integer key, Object val) {
+    private Object putIfAbsentSingleton(int key, Object val, LocalStorage localStorage) {
 
-        LNode n = new LNode(key, val);
+        LNode n = null; // only allocated once the key is known to be absent
 
         LNode pred;
         LNode next;
@@ -369,7 +598,7 @@ public class LinkedList implements Iterable<Object> {
 
             boolean startOver = false;
 
-            pred = getPredSingleton(n);
+            pred = getPredSingleton(key);
             if (pred.isLocked()) {
                 continue;
             }
@@ -389,18 +618,21 @@ public class LinkedList implements Iterable<Object> {
                     break;
                 }
 
-                if (next.key.compareTo(key) == 0) {
+                if (next.key == key) {
                     // the key exists, return value
                     LNode node = pred.next;
-                    if (node.key.compareTo(key) != 0 || node != next || node.isLockedOrDeleted()) {
+                    if (node.key != key || node != next || node.isLockedOrDeleted()) {
 //						node.unlock();
                         startOver = true;
                         break;
                     }
                     // return previous value associated with key
                     return node.val;
-                } else if (next.key.compareTo(key) > 0) {
+                } else if (next.key > key) {
                     // key doesn't exist, perform insert
+                    if (n == null) {
+                        n = newNode(key, val, localStorage);
+                    }
                     if (pred.tryLock()) {
 
                         if (pred.isDeleted() || next != pred.next) {
@@ -409,9 +641,7 @@ public class LinkedList implements Iterable<Object> {
                             break;
                         }
 
-                        n.next = pred.next;
-                        pred.next = n;
-                        n.setVersionAndSingletonNoLockAssert(TX.getVersion(), true);
+                        insertSingleton(pred, n, n);
                         pred.unlock();
                         index.add(n);
                         return null;
@@ -447,13 +677,16 @@ public class LinkedList implements Iterable<Object> {
 
             // all are strictly less than key
             // put at end
+            if (n == null) {
+                n = newNode(key, val, localStorage);
+            }
             if (pred.tryLock()) {
                 if (pred.isDeleted() || pred.next != null) {
                     pred.unlock();
                     continue;
                 }
 
-                pred.next = n;
+                insertSingleton(pred, n, n);
                 pred.unlock();
                 index.add(n);
                 return null;
@@ -476,30 +709,48 @@ public class LinkedList implements Iterable<Object> {
      */
     public Object putIfAbsent(Integer key, Object val) throws TXLibExceptions.AbortException {
 
-        if (key == null || val == null)
+        if (key == null)
             throw new NullPointerException();
 
-        LocalStorage localStorage = TX.lStorage.get();
+        return putIfAbsent(key.intValue(), val);
+    }
+
+    /**
+     * Same as {@link #putIfAbsent(Integer, Object)}, without boxing the key.
+     *
+     * @throws  NullPointerException if the specified value is null
+     */
+    public Object putIfAbsent(int key, Object val) throws TXLibExceptions.AbortException {
+
+        if (val == null)
+            throw new NullPointerException();
+
+        LocalStorage localStorage = domain.localStorage();
 
         // SINGLETON
         if (!localStorage.TX) {
-            return putIfAbsentSingleton(key, val);
+            domain.beginSingleton(localStorage);
+            enter(localStorage);
+            try {
+                return putIfAbsentSingleton(key, val, localStorage);
+            } finally {
+                exit(localStorage);
+                domain.endSingleton(localStorage);
+            }
         }
 
         // TX
-        localStorage.readOnly = false;
+        localStorage.setWriting();
 
-        LNode n = new LNode(key, val);
-
-        LNode pred = getPred(n, localStorage);
+        LNode pred = getPred(key, localStorage);
         LNode next = getNext(pred, localStorage);
         boolean found = false;
 
         while (next != null) {
-            if (next.key.compareTo(key) == 0) {
+            if (next.key == key) {
                 found = true;
                 break;
-            } else if (next.key.compareTo(key) > 0) {
+            } else if (next.key > key) {
                 break;
             } else {
                 pred = next;
@@ -509,22 +760,24 @@ public class LinkedList implements Iterable<Object> {
 
         if (found) {
             // the key exists, return value
-            localStorage.readSet.add(next); // add to read set
-            return next.val;
+            localStorage.addToReadSet(next); // add to read set
+            return getVal(next, localStorage);
         }
 
         // not found
+        localStorage.addToReadSet(pred); // add to read set
+        LNode n = newNode(key, val, localStorage);
         n.next = next;
-        localStorage.putIntoWriteSet(pred, n, getVal(pred, localStorage), false);
-        localStorage.addToIndexAdd(this, n);
-        localStorage.readSet.add(pred); // add to read set
+        localStorage.putIntoWriteSet(pred, n, getVal(pred, localStorage), false, historyLength);
+        if (historyLength > 0) {
+            localStorage.putIntoWriteSet(n, next, val, false, 0);
+        }
+        localStorage.addToIndexAdd(index, n);
 
         return null;
     }
 
-    private Object removeSingleton(Integer key) {
-
-        LNode n = new LNode(key, null);
+    private Object removeSingleton(int key, LocalStorage localStorage) {
 
         LNode pred;
         LNode next;
@@ -533,7 +786,7 @@ public class LinkedList implements Iterable<Object> {
 
             boolean startOver = false;
 
-            pred = getPredSingleton(n);
+            pred = getPredSingleton(key);
             if (pred.isLocked()) {
                 continue;
             }
@@ -553,7 +806,7 @@ public class LinkedList implements Iterable<Object> {
                     break;
                 }
 
-                if (next.key.compareTo(key) < 0) {
+                if (next.key < key) {
                     if (next.isLocked() || next != pred.next) {
                         startOver = true;
                         break;
@@ -572,7 +825,7 @@ public class LinkedList implements Iterable<Object> {
                         startOver = true;
                         break;
                     }
-                } else if (next.key.compareTo(key) > 0) {
+                } else if (next.key > key) {
                     if (next != pred.next) {
                         startOver = true;
                         break;
@@ -597,12 +850,16 @@ public class LinkedList implements Iterable<Object> {
                         Object valToRet;
                         if (next.tryLock()) {
                             toRemove = next;
+                            long ver = domain.singletonVersion();
+                            if (historyLength > 0) {
+                                saveVersion(pred, ver);
+                                saveVersion(toRemove, ver);
+                            }
                             valToRet = toRemove.val;
                             toRemove.val = null; // for Index
                             pred.next = pred.next.next;
-                            long ver = TX.getVersion();
-                            toRemove.setVersionAndDeletedAndSingleton(ver, true, true);
-                            pred.setVersionAndSingleton(ver, true);
+                            toRemove.setVersionAndDeleted(ver, true);
+                            pred.setVersion(ver);
                             if (TX.DEBUG_MODE_LL) {
                                 System.out.println("removeSingleton: removed key " + key);
                             }
@@ -614,6 +871,7 @@ public class LinkedList implements Iterable<Object> {
                         toRemove.unlock();
                         pred.unlock();
                         index.remove(toRemove);
+                        retire(toRemove, localStorage);
                         return valToRet;
                     } else {
                         if (TX.DEBUG_MODE_LL) {
@@ -648,28 +906,41 @@ public class LinkedList implements Iterable<Object> {
         if (key == null)
             throw new NullPointerException();
 
-        LocalStorage localStorage = TX.lStorage.get();
+        return remove(key.intValue());
+    }
+
+    /**
+     * Same as {@link #remove(Integer)}, without boxing the key.
+     */
+    public Object remove(int key) throws TXLibExceptions.AbortException {
+
+        LocalStorage localStorage = domain.localStorage();
 
         // SINGLETON
         if (!localStorage.TX) {
-            return removeSingleton(key);
+            domain.beginSingleton(localStorage);
+            enter(localStorage);
+            try {
+                return removeSingleton(key, localStorage);
+            } finally {
+                exit(localStorage);
+                domain.endSingleton(localStorage);
+            }
         }
 
         // TX
 
-        localStorage.readOnly = false;
+        localStorage.setWriting();
 
-        LNode node = new LNode(key, null);
-
-        LNode pred = getPred(node, localStorage);
+        LNode pred = getPred(key, localStorage);
         LNode next = getNext(pred, localStorage);
         boolean found = false;
 
         while (next != null) {
-            if (next.key.compareTo(key) == 0) {
+            if (next.key == key) {
                 found = true;
                 break;
-            } else if (next.key.compareTo(key) > 0) {
+            } else if (next.key > key) {
                 break;
             } else {
                 pred = next;
@@ -677,17 +948,19 @@ public class LinkedList implements Iterable<Object> {
             }
         }
 
+        // add to read set
+        localStorage.addToReadSet(pred);
+
         if (found) {
-            localStorage.putIntoWriteSet(pred, getNext(next, localStorage), getVal(pred, localStorage), false);
-            localStorage.putIntoWriteSet(next, null, getVal(next, localStorage), true);
-            // add to read set
-            localStorage.readSet.add(next);
-            localStorage.addToIndexRemove(this, next);
+            localStorage.addToReadSet(next);
+            localStorage.putIntoWriteSet(pred, getNext(next, localStorage), getVal(pred, localStorage), false, historyLength);
+            localStorage.putIntoWriteSet(next, null, getVal(next, localStorage), true, historyLength);
+            localStorage.addToIndexRemove(index, next);
+            if (recycle) {
+                domain.epochs.addRemoved(localStorage, next);
+            }
         }
 
-        // add to read set
-        localStorage.readSet.add(pred);
-
         if (!found) {
             return null;
         }
@@ -698,9 +971,393 @@ public class LinkedList implements Iterable<Object> {
         return next.val;
     }
 
-    private boolean containsKeySingleton(Integer key) {
+    /**
+     * The batch sorted by key, each entry packing a key with its position in the batch.
+     * For a key given more than once, only its last position is kept.
+     */
+    static long[] sortBatch(int[] keys) {
+        long[] batch = new long[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            batch[i] = ((long) keys[i] << 32) | i;
+        }
+        Arrays.sort(batch);
+        int size = 0;
+        for (int i = 0; i < batch.length; i++) {
+            if (i + 1 < batch.length && batchKey(batch[i + 1]) == batchKey(batch[i])) {
+                continue;
+            }
+            batch[size++] = batch[i];
+        }
+        return (size == batch.length) ? batch : Arrays.copyOf(batch, size);
+    }
+
+    static int batchKey(long entry) {
+        return (int) (entry >> 32);
+    }
 
-        LNode n = new LNode(key, null);
+    static int batchPos(long entry) {
+        return (int) entry;
+    }
+
+    // moves pred forward to the last node before key, descending the index again if key is far
+    private LNode batchPred(LNode pred, int key, LocalStorage localStorage) throws TXLibExceptions.AbortException {
+        int hops = 0;
+        if (pred == null) {
+            pred = getPred(key, localStorage);
+            hops = BATCH_HOPS; // already descended, walk without limit
+        }
+        LNode next = getNext(pred, localStorage);
+        while (next != null && next.key < key) {
+            if (++hops == BATCH_HOPS) {
+                pred = getPred(key, localStorage);
+            } else {
+                pred = next;
+            }
+            next = getNext(pred, localStorage);
+        }
+        return pred;
+    }
+
+    private void putAllSingleton(long[] batch, Object[] vals, LocalStorage localStorage) {
+
+        LNode[] added = new LNode[batch.length];
+        int addedCount = 0;
+
+        LNode pred = null;
+        int hops = 0;
+        int i = 0;
+
+        while (i < batch.length) {
+
+            int key = batchKey(batch[i]);
+
+            if (pred == null) {
+                pred = getPredSingleton(key);
+                hops = 0;
+            }
+            if (pred.isLocked()) {
+                pred = null;
+                continue;
+            }
+            unsafe.loadFence();
+            LNode next = pred.next;
+            unsafe.loadFence();
+            if (pred.isLockedOrDeleted()) {
+                pred = null;
+                continue;
+            }
+
+            if (next != null && next.key < key) {
+                if (next.isLockedOrDeleted()) {
+                    pred = null;
+                } else if (++hops == BATCH_HOPS) {
+                    // key is far, descend the index once instead of walking on
+                    pred = getPredSingleton(key);
+                } else {
+                    pred = next;
+                }
+                continue;
+            }
+
+            if (next != null && next.key == key) {
+                // the key exists, change to new value
+                if (!next.tryLock()) {
+                    pred = null;
+                    continue;
+                }
+                if (next.isDeleted()) {
+                    next.unlock();
+                    pred = null;
+                    continue;
+                }
+                long ver = domain.singletonVersion();
+                if (historyLength > 0) {
+                    saveVersion(next, ver);
+                }
+                next.val = vals[batchPos(batch[i])];
+                next.setVersion(ver);
+                next.unlock();
+                i++;
+                hops = 0;
+                pred = next;
+                continue;
+            }
+
+            // all the keys before next go between pred and next, under one lock of pred
+            if (!pred.tryLock()) {
+                pred = null;
+                continue;
+            }
+            if (pred.isDeleted() || next != pred.next) {
+                pred.unlock();
+                pred = null;
+                continue;
+            }
+            LNode first = newNode(key, vals[batchPos(batch[i])], localStorage);
+            LNode last = first;
+            added[addedCount++] = first;
+            i++;
+            while (i < batch.length && (next == null || batchKey(batch[i]) < next.key)) {
+                LNode n = newNode(batchKey(batch[i]), vals[batchPos(batch[i])], localStorage);
+                last.next = n;
+                last = n;
+                added[addedCount++] = n;
+                i++;
+            }
+            insertSingleton(pred, first, last);
+            pred.unlock();
+            pred = last;
+            hops = 0;
+        }
+
+        index.addAll(added, 0, addedCount);
+    }
+
+    /**
+     * @effects Associates each key with the value at the same position, as put() would
+     * 			one key after the other. The keys are sorted first and then all put
+     * 			in a single traversal of the list.
+     *
+     * @throws  NullPointerException if a value is null
+     * @throws  IllegalArgumentException if there are not as many values as keys
+     */
+    public void putAll(int[] keys, Object[] vals) throws TXLibExceptions.AbortException {
+
+        if (keys.length != vals.length)
+            throw new IllegalArgumentException("not as many values as keys");
+        for (Object val : vals) {
+            if (val == null)
+                throw new NullPointerException();
+        }
+
+        long[] batch = sortBatch(keys);
+
+        LocalStorage localStorage = domain.localStorage();
+
+        // SINGLETON
+        if (!localStorage.TX) {
+            domain.beginSingleton(localStorage);
+            enter(localStorage);
+            try {
+                putAllSingleton(batch, vals, localStorage);
+            } finally {
+                exit(localStorage);
+                domain.endSingleton(localStorage);
+            }
+            return;
+        }
+
+        // TX
+        localStorage.setWriting();
+
+        LNode pred = null;
+        LNode inserted = null;
+
+        for (long entry : batch) {
+            int key = batchKey(entry);
+            Object val = vals[batchPos(entry)];
+
+            pred = batchPred(pred, key, localStorage);
+            LNode next = getNext(pred, localStorage);
+
+            if (next != null && next.key == key) {
+                localStorage.addToReadSet(next);
+                WriteElement we = localStorage.writeSet.get(next);
+                if (we != null) {
+                    localStorage.putIntoWriteSet(next, we.next, val, we.deleted, historyLength);
+                } else {
+                    localStorage.putIntoWriteSet(next, getNext(next, localStorage), val, false, historyLength);
+                }
+                pred = next;
+                continue;
+            }
+
+            LNode node = newNode(key, val, localStorage);
+            node.next = next;
+            if (pred == inserted && historyLength == 0) {
+                // pred is one of ours, no one sees it before commit
+                pred.next = node;
+            } else {
+                localStorage.addToReadSet(pred);
+                localStorage.putIntoWriteSet(pred, node, getVal(pred, localStorage), false, historyLength);
+            }
+            if (historyLength > 0) {
+                localStorage.putIntoWriteSet(node, next, val, false, 0);
+            }
+            localStorage.addToIndexAdd(index, node);
+            pred = node;
+            inserted = node;
+        }
+    }
+
+    private int removeAllSingleton(long[] batch, LocalStorage localStorage) {
+
+        LNode[] removed = new LNode[batch.length];
+        int removedCount = 0;
+
+        LNode pred = null;
+        int hops = 0;
+        int i = 0;
+
+        while (i < batch.length) {
+
+            int key = batchKey(batch[i]);
+
+            if (pred == null) {
+                pred = getPredSingleton(key);
+                hops = 0;
+            }
+            if (pred.isLocked()) {
+                pred = null;
+                continue;
+            }
+            unsafe.loadFence();
+            LNode next = pred.next;
+            unsafe.loadFence();
+            if (pred.isLockedOrDeleted()) {
+                pred = null;
+                continue;
+            }
+
+            if (next != null && next.key < key) {
+                if (next.isLockedOrDeleted()) {
+                    pred = null;
+                } else if (++hops == BATCH_HOPS) {
+                    // key is far, descend the index once instead of walking on
+                    pred = getPredSingleton(key);
+                } else {
+                    pred = next;
+                }
+                continue;
+            }
+
+            if (next == null || next.key > key) {
+                if (next != pred.next) {
+                    pred = null;
+                    continue;
+                }
+                // key does not exist
+                i++;
+                hops = 0;
+                continue;
+            }
+
+            // the key exists, remove it with the keys of the batch right after it
+            if (!pred.tryLock()) {
+                pred = null;
+                continue;
+            }
+            if (pred.isDeleted() || next != pred.next) {
+                pred.unlock();
+                pred = null;
+                continue;
+            }
+            if (!next.tryLock()) {
+                pred.unlock();
+                pred = null;
+                continue;
+            }
+            LNode last = next;
+            i++;
+            while (i < batch.length && last.next != null && last.next.key == batchKey(batch[i])
+                    && last.next.tryLock()) {
+                last = last.next;
+                i++;
+            }
+            long ver = domain.singletonVersion();
+            if (historyLength > 0) {
+                saveVersion(pred, ver);
+                for (LNode n = next; ; n = n.next) {
+                    saveVersion(n, ver);
+                    if (n == last) {
+                        break;
+                    }
+                }
+            }
+            for (LNode n = next; ; n = n.next) {
+                n.val = null; // for Index
+                removed[removedCount++] = n;
+                if (n == last) {
+                    break;
+                }
+            }
+            pred.next = last.next;
+            for (LNode n = next; ; ) {
+                LNode following = n.next; // read while n is still locked
+                n.setVersionAndDeleted(ver, true);
+                n.unlock();
+                if (n == last) {
+                    break;
+                }
+                n = following;
+            }
+            pred.setVersion(ver);
+            pred.unlock();
+            hops = 0;
+        }
+
+        index.removeAll(removed, 0, removedCount);
+        for (int j = 0; j < removedCount; j++) {
+            retire(removed[j], localStorage);
+        }
+        return removedCount;
+    }
+
+    /**
+     * @effects Removes the mappings for the keys that are present, as remove() would
+     * 			one key after the other. The keys are sorted first and then all removed
+     * 			in a single traversal of the list.
+     *
+     * @return  The number of mappings removed
+     */
+    public int removeAll(int[] keys) throws TXLibExceptions.AbortException {
+
+        long[] batch = sortBatch(keys);
+
+        LocalStorage localStorage = domain.localStorage();
+
+        // SINGLETON
+        if (!localStorage.TX) {
+            domain.beginSingleton(localStorage);
+            enter(localStorage);
+            try {
+                return removeAllSingleton(batch, localStorage);
+            } finally {
+                exit(localStorage);
+                domain.endSingleton(localStorage);
+            }
+        }
+
+        // TX
+        localStorage.setWriting();
+
+        int removed = 0;
+        LNode pred = null;
+
+        for (long entry : batch) {
+            int key = batchKey(entry);
+
+            pred = batchPred(pred, key, localStorage);
+            LNode next = getNext(pred, localStorage);
+
+            // add to read set
+            localStorage.addToReadSet(pred);
+            if (next != null && next.key == key) {
+                localStorage.addToReadSet(next);
+                localStorage.putIntoWriteSet(pred, getNext(next, localStorage), getVal(pred, localStorage), false, historyLength);
+                localStorage.putIntoWriteSet(next, null, getVal(next, localStorage), true, historyLength);
+                localStorage.addToIndexRemove(index, next);
+                if (recycle) {
+                    domain.epochs.addRemoved(localStorage, next);
+                }
+                removed++;
+            }
+        }
+
+        return removed;
+    }
+
+    private boolean containsKeySingleton(int key) {
 
         LNode pred = null;
         LNode next;
@@ -710,7 +1367,7 @@ public class LinkedList implements Iterable<Object> {
         while (true) {
 
             if (startOver) {
-                pred = getPredSingleton(n);
+                pred = getPredSingleton(key);
             } else {
                 pred = pred.next;
                 if (pred == null) {
@@ -735,13 +1392,13 @@ public class LinkedList implements Iterable<Object> {
                 continue;
             }
 
-            if (next == null || next.key.compareTo(key) > 0) {
+            if (next == null || next.key > key) {
                 // key does not exist
                 return false;
-            } else if (next.key.compareTo(key) == 0) {
+            } else if (next.key == key) {
                 return true;
             } else {
-                assert (next.key.compareTo(key) < 0);
+                assert (next.key < key);
                 if (next != pred.next) {
                     startOver = true;
                 }
@@ -761,43 +1418,49 @@ public class LinkedList implements Iterable<Object> {
         if (key == null)
             throw new NullPointerException();
 
-        LocalStorage localStorage = TX.lStorage.get();
+        return containsKey(key.intValue());
+    }
+
+    /**
+     * Same as {@link #containsKey(Integer)}, without boxing the key.
+     */
+    public boolean containsKey(int key) throws TXLibExceptions.AbortException {
+
+        LocalStorage localStorage = domain.localStorage();
 
         // SINGLETON
         if (!localStorage.TX) {
-            return containsKeySingleton(key);
+            enter(localStorage);
+            try {
+                return containsKeySingleton(key);
+            } finally {
+                exit(localStorage);
+            }
         }
 
         // TX
 
-        LNode n = new LNode(key, null);
-
-        LNode pred = getPred(n, localStorage);
+        LNode pred = getPred(key, localStorage);
         LNode next = getNext(pred, localStorage);
 
-        while (next != null && next.key.compareTo(key) < 0) {
+        while (next != null && next.key < key) {
             pred = next;
             next = getNext(pred, localStorage);
         }
 
         // add to read set
-        localStorage.readSet.add(pred);
+        localStorage.addToReadSet(pred);
 
-        if (next == null || next.key.compareTo(key) > 0) {
+        if (next == null || next.key > key) {
             return false;
         } else {
-            assert (next.key.compareTo(key) == 0);
+            assert (next.key == key);
             return true;
         }
 
     }
 
-    private Object getSingleton(Integer key) {
-
-        if (key == null)
-            throw new NullPointerException();
-
-        LNode n = new LNode(key, null);
+    private Object getSingleton(int key) {
 
         LNode pred = null;
         LNode next;
@@ -807,7 +1470,7 @@ public class LinkedList implements Iterable<Object> {
         while (true) {
 
             if (startOver) {
-                pred = getPredSingleton(n);
+                pred = getPredSingleton(key);
             } else {
                 pred = pred.next;
                 if (pred == null) {
@@ -832,13 +1495,13 @@ public class LinkedList implements Iterable<Object> {
                 continue;
             }
 
-            if (next == null || next.key.compareTo(key) > 0) {
+            if (next == null || next.key > key) {
                 // key does not exist
                 return null;
-            } else if (next.key.compareTo(key) == 0) {
+            } else if (next.key == key) {
                 return next.val;
             } else {
-                assert (next.key.compareTo(key) < 0);
+                assert (next.key < key);
                 if (next != pred.next) {
                     startOver = true;
                 }
@@ -857,20 +1520,33 @@ public class LinkedList implements Iterable<Object> {
 
     	if (key == null)
             throw new NullPointerException();
-    	
-        LocalStorage localStorage = TX.lStorage.get();
+
+        return get(key.intValue());
+    }
+
+    /**
+     * Same as {@link #get(Integer)}, without boxing the key.
+     */
+    public Object get(int key) throws TXLibExceptions.AbortException {
+
+        LocalStorage localStorage = domain.localStorage();
 
         // SINGLETON
         if (!localStorage.TX) {
-            return getSingleton(key);
+            enter(localStorage);
+            try {
+                return getSingleton(key);
+            } finally {
+                exit(localStorage);
+            }
         }
 
         // TX
 
-        LNode pred = getPred(new LNode(key, null), localStorage);
+        LNode pred = getPred(key, localStorage);
         LNode next = getNext(pred, localStorage);
 
-        while (next != null && next.key.compareTo(key) < 0) {
+        while (next != null && next.key < key) {
             pred = next;
             next = getNext(pred, localStorage);
         }
@@ -882,12 +1558,14 @@ public class LinkedList implements Iterable<Object> {
         }
 
         // add to read set
-        localStorage.readSet.add(pred);
+        localStorage.addToReadSet(pred);
 
-        if (next == null || next.key.compareTo(key) > 0) {
+        if (next == null || next.key > key) {
             return null;
         } else {
-            assert (next.key.compareTo(key) == 0);
+            assert (next.key == key);
+            // its value is read too, and a put changes only its version
+            localStorage.addToReadSet(next);
             return getVal(next, localStorage);
         }
     }
@@ -901,7 +1579,10 @@ public class LinkedList implements Iterable<Object> {
     	return new RangeIterator<Object>() {
 
     		private LNode node = head;
-    		private Integer end = Integer.MAX_VALUE;
+    		private int key = Integer.MIN_VALUE; // of node
+    		private int end = Integer.MAX_VALUE;
+    		// the epoch of the last step, when nodes are recycled
+    		private long epoch = -1;
     		
     		private LNode getNext(LNode pred) {
 
@@ -915,12 +1596,52 @@ public class LinkedList implements Iterable<Object> {
                     next = pred.next;
                     unsafe.loadFence();
 
+                    if (pred.isDeleted()) {
+                        // removed, its next may never change again
+                        pred = seek(pred.key);
+                        continue;
+                    }
                     if (pred.isLocked() || (next != null && next.isDeleted()))
                         continue;
 
                     return next;
                 }
             }
+
+    		// the last node with a key up to key
+    		private LNode seek(int key) {
+    			LNode pred = getPredSingleton(key);
+    			LNode next = this.getNext(pred);
+    			while (next != null && next.key <= key) {
+    				pred = next;
+    				next = this.getNext(pred);
+    			}
+    			return pred;
+    		}
+
+    		/**
+    		 * Runs a step in an epoch (see Epochs). Between steps node is not protected:
+    		 * once the epoch moved it may have been removed and reused with another key,
+    		 * so the step starts from the last node up to key instead.
+    		 *
+    		 * @return the state to end the step with, null unless nodes are recycled
+    		 */
+    		private LocalStorage beginStep() {
+    			if (!recycle)
+    				return null;
+    			LocalStorage localStorage = domain.localStorage();
+    			long current = domain.epochs.enter(localStorage);
+    			if (current != epoch && node != head) {
+    				node = seek(key);
+    			}
+    			epoch = current;
+    			return localStorage;
+    		}
+
+    		private void endStep(LocalStorage localStorage) {
+    			if (localStorage != null)
+    				domain.epochs.exit(localStorage);
+    		}
     		
     		@Override
 			public void init() {
@@ -929,7 +1650,19 @@ public class LinkedList implements Iterable<Object> {
 
 			@Override
 			public void init_from(Object start) {
-				node = getPredSingleton(new LNode((int) start, null));			
+				LocalStorage localStorage = beginStep();
+				try {
+					node = getPredSingleton((int) start);
+					// the index may give an earlier node, skip to start
+					LNode next = this.getNext(node);
+					while (next != null && next.key < (int) start) {
+						node = next;
+						next = this.getNext(node);
+					}
+					key = node.key;
+				} finally {
+					endStep(localStorage);
+				}
 			}
 
 			@Override
@@ -949,20 +1682,31 @@ public class LinkedList implements Iterable<Object> {
     		
 			@Override
 			public boolean hasNext() {
-				
-				LNode next = this.getNext(node);
-				if (next == null || next.key > end)
-    	    		return false;
-
-    	        return true;
+				LocalStorage localStorage = beginStep();
+				try {
+					LNode next = this.getNext(node);
+					if (next == null || next.key > end)
+						return false;
+
+					return true;
+				} finally {
+					endStep(localStorage);
+				}
 			}
 
 			@Override
 			public Object next() {
-				node = this.getNext(node);
-				if (node == null)
-    	        	throw new NoSuchElementException();
-            	return node.val;
+				LocalStorage localStorage = beginStep();
+				try {
+					LNode next = this.getNext(node);
+					if (next == null)
+						throw new NoSuchElementException();
+					node = next;
+					key = next.key;
+					return next.val;
+				} finally {
+					endStep(localStorage);
+				}
 			}
     		
     	};
@@ -973,7 +1717,7 @@ public class LinkedList implements Iterable<Object> {
      */
 	public RangeIterator<Object> iterator(boolean atomic)  throws TXLibExceptions.AbortException {
 		
-		LocalStorage localStorage = TX.lStorage.get();
+		LocalStorage localStorage = domain.localStorage();
 
         // SINGLETON
         if (!localStorage.TX || !atomic) {
@@ -983,24 +1727,30 @@ public class LinkedList implements Iterable<Object> {
         return new RangeIterator<Object>() {
 
     		private LNode node;
-    		private Integer end = Integer.MAX_VALUE;
+    		private int end = Integer.MAX_VALUE;
     	    private LocalStorage localStorage;
     	    
     	    @Override
     		public void init() {
     	    	
     	    	node = head;
-    	    	localStorage = TX.lStorage.get();
-    	    	localStorage.readSet.add(node);
+    	    	localStorage = domain.localStorage();
+    	    	localStorage.addToReadSet(node);
     			
     		}
     	
     		@Override
     		public void init_from(Object start) {
 
-    			localStorage = TX.lStorage.get();
-    			node = getPred(new LNode((int) start, null), localStorage);			    	
-    	    	localStorage.readSet.add(node);
+    			localStorage = domain.localStorage();
+    			node = getPred((int) start, localStorage);
+    			// the index may give an earlier node, skip to start
+    			LNode next = getNext(node, localStorage);
+    			while (next != null && next.key < (int) start) {
+    				node = next;
+    				next = getNext(node, localStorage);
+    			}
+    	    	localStorage.addToReadSet(node);
     			
     		}
     		
@@ -1008,8 +1758,8 @@ public class LinkedList implements Iterable<Object> {
     		public void init_upTo(Object end) {
 
     			node = head;
-    			localStorage = TX.lStorage.get();		    	
-    	    	localStorage.readSet.add(node);
+    			localStorage = domain.localStorage();		    	
+    	    	localStorage.addToReadSet(node);
     	    	this.end = (int) end;
     			
     		}
@@ -1040,7 +1790,7 @@ public class LinkedList implements Iterable<Object> {
     	        if (node == null)
     	        	throw new NoSuchElementException();
     	        
-    	        localStorage.readSet.add(node);
+    	        localStorage.addToReadSet(node);
     	    	return getVal(node, localStorage);
     	    }
 
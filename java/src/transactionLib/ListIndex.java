@@ -0,0 +1,122 @@
+package transactionLib;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The index over the nodes of a LinkedList: shortcuts to a node before a key,
+ * so that searches walk only a few list nodes. The list is the truth, an index
+ * may miss nodes or keep deleted ones for a while.
+ * Chosen at startup with -Dtdsl.index=nodes|towers (nodes by default).
+ * With -Dtdsl.index.async=true writers leave the index to a maintenance thread
+ * (see MaintainedIndex).
+ */
+public abstract class ListIndex {
+
+    /**
+     * Defaults of the level generator, those of ConcurrentSkipListMap:
+     * a quarter of the nodes are indexed, half of the indexed ones
+     * get a second level, and so on, up to 31 levels
+     */
+    public static final double DEFAULT_INDEX_PROBABILITY = 0.25;
+    public static final double DEFAULT_PROMOTION_PROBABILITY = 0.5;
+    public static final int DEFAULT_MAX_LEVEL = 31;
+
+    /**
+     * Special value used to identify base-level header
+     */
+    protected static final Object BASE_HEADER = new Object();
+
+    private static final String kind = System.getProperty("tdsl.index", "nodes");
+    private static final boolean async = Boolean.getBoolean("tdsl.index.async");
+
+    /**
+     * Level generator parameters, the probabilities scaled to
+     * thresholds on 31 random bits
+     */
+    private final int indexThreshold;
+    private final int promotionThreshold;
+    protected final int maxLevel;
+
+    /**
+     * @param indexProbability     the chance that a new node is indexed at all
+     * @param promotionProbability the chance that an indexed node gets one more level
+     * @param maxLevel             the most levels a node gets
+     */
+    protected ListIndex(LNode headNode, double indexProbability, double promotionProbability, int maxLevel) {
+        if (!(indexProbability > 0 && indexProbability <= 1)
+                || !(promotionProbability >= 0 && promotionProbability < 1) || maxLevel < 1)
+            throw new IllegalArgumentException();
+        this.indexThreshold = threshold(indexProbability);
+        this.promotionThreshold = threshold(promotionProbability);
+        this.maxLevel = maxLevel;
+        headNode.val = BASE_HEADER;
+    }
+
+    protected static ListIndex create(TXDomain domain, LNode headNode, double indexProbability,
+                                      double promotionProbability, int maxLevel) {
+        ListIndex index;
+        if (kind.equals("nodes")) {
+            index = new Index(headNode, indexProbability, promotionProbability, maxLevel);
+        } else if (kind.equals("towers")) {
+            index = new TowerIndex(headNode, indexProbability, promotionProbability, maxLevel);
+        } else {
+            throw new IllegalArgumentException("unknown index " + kind);
+        }
+        if (async) {
+            return new MaintainedIndex(domain, headNode, indexProbability, promotionProbability, maxLevel, index);
+        }
+        return index;
+    }
+
+    private static int threshold(double probability) {
+        return (int) Math.min((long) (probability * (1L << 31)), Integer.MAX_VALUE);
+    }
+
+    /**
+     * Draws from the calling thread's generator, so that concurrent
+     * adds do not write a shared seed.
+     *
+     * @return the number of index levels for a new node, 0 for none
+     */
+    protected int randomLevel() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if ((random.nextInt() >>> 1) >= indexThreshold)
+            return 0;
+        int level = 1;
+        while (level < maxLevel && (random.nextInt() >>> 1) < promotionThreshold)
+            ++level;
+        return level;
+    }
+
+    /**
+     * Indexes a node linked into the list.
+     */
+    abstract void add(LNode node);
+
+    /**
+     * Drops the index entries of a node deleted from the list (its val is null).
+     */
+    abstract void remove(LNode node);
+
+    /**
+     * Adds nodes[from..to), sorted by increasing key, as add() would one by one.
+     */
+    abstract void addAll(LNode[] nodes, int from, int to);
+
+    /**
+     * Removes nodes[from..to), sorted by increasing key, as remove() would one by one.
+     */
+    abstract void removeAll(LNode[] nodes, int from, int to);
+
+    /**
+     * Drops the index entries of every deleted node, wherever they are.
+     */
+    abstract void clean();
+
+    /**
+     * @return a node that is not deleted with key strictly less than the given key,
+     * or the head of the list
+     */
+    abstract LNode getPred(int key);
+
+}
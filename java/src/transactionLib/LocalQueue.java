@@ -2,52 +2,61 @@ package transactionLib;
 
 public class LocalQueue {
 
-    protected boolean firstDeq = true; // is this the first time of a dequeue?
-    protected QNode nodeToDeq = null; // the node to dequeue
-    protected boolean isLockedByMe = false; // is queue (not local queue) locked by me
-    private QNode head = null;
-    private QNode tail = null;
-    private int size;
+    // where the transaction dequeues next: the node and the index of the value in it
+    protected QNode nodeToDeq = null; // null until the transaction reads the queue
+    protected int deqIndex = 0;
+    protected boolean dequeued = false; // did the transaction dequeue from the queue
+    // the node the transaction found last in the queue, null if it never reached the end
+    protected QNode endNode = null;
+    // the head of the queue (not local queue) the transaction read first, null if it did not read it
+    protected Queue.Head headRead = null;
+    // claimed at commit by a transaction that dequeued, given back if it does not commit (see Queue.release())
+    protected boolean headClaimed = false;
+    // the last node of the queue, whose next the transaction claimed to link its enqueues at commit
+    protected QNode lastClaimed = null;
+    // the values enqueued, from first to last, linked to the queue as one segment at commit
+    private Object[] vals = null;
+    private int first = 0;
+    private int last = 0;
 
     protected void enqueue(Object val) {
 
-        QNode node = new QNode();
-        node.val = val;
-        node.next = null;
-        node.prev = tail;
-
-        size++;
-        if (tail == null) {
-            tail = node;
-            head = node;
-
-        } else {
-            tail.next = node;
-            tail = node;
+        if (vals == null) {
+            vals = new Object[8];
+        } else if (last == vals.length) {
+            Object[] grown = new Object[vals.length * 2];
+            System.arraycopy(vals, first, grown, 0, last - first);
+            last -= first;
+            first = 0;
+            vals = grown;
         }
+        vals[last++] = val;
     }
 
-    protected Object dequeue() throws TXLibExceptions.QueueIsEmptyException {
+    // the local queue is not empty
+    protected Object dequeue() {
 
-        if (head == null) {
-            TXLibExceptions excep = new TXLibExceptions();
-            throw excep.new QueueIsEmptyException();
-        }
-        QNode temp = head;
-        Object ret = temp.val;
-        head = head.next;
-        if (head == null) {
-            tail = null;
-        } else {
-            head.prev = null;
-        }
-        size--;
+        Object ret = vals[first];
+        vals[first++] = null;
         return ret;
     }
 
+    // the local queue is not empty
+    protected Object peek() {
+
+        return vals[first];
+    }
+
     protected boolean isEmpty() {
 
-        return (size <= 0);
+        return first == last;
+    }
+
+    /**
+     * @return a node of the values, which it keeps (the local queue is done with them)
+     */
+    protected QNode toSegment() {
+        return new QNode(vals, first, last);
     }
 
 }
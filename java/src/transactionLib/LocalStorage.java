@@ -1,50 +1,66 @@
 package transactionLib;
 
-import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
 
 public class LocalStorage {
 
+    // the domain whose transactions this state is for
+    protected final TXDomain domain;
+
     public long readVersion = 0L;
     protected long writeVersion = 0L; // for debug
     protected boolean TX = false;
     protected boolean readOnly = true;
+    // declared with TX.TXbeginReadOnly(): reads are validated as they happen and no read set is kept
+    protected boolean declaredReadOnly = false;
     protected HashMap<Queue, LocalQueue> queueMap = new HashMap<Queue, LocalQueue>();
-    protected HashMap<LNode, WriteElement> writeSet = new HashMap<LNode, WriteElement>();
-    protected HashSet<LNode> readSet = new HashSet<LNode>();
-    protected HashMap<LinkedList, ArrayList<LNode>> indexAdd = new HashMap<LinkedList, ArrayList<LNode>>();
-    protected HashMap<LinkedList, ArrayList<LNode>> indexRemove = new HashMap<LinkedList, ArrayList<LNode>>();
-    // with ArrayList all nodes will be added to the list
-    // (no compression needed)
-    // later, when we add the nodes to the index,
-    // the latest node that was added to this list
-    // will be the last update to the node in the index
-
-    protected void putIntoWriteSet(LNode node, LNode next, Object val, boolean deleted) {
-        WriteElement we = new WriteElement();
-        we.next = next;
-        we.deleted = deleted;
-        we.val = val;
-        writeSet.put(node, we);
+    // the sets below are reset at the end of every transaction and reused by the next one
+    protected WriteSet writeSet = new WriteSet();
+    protected ReadSet readSet = new ReadSet();
+    protected IndexUpdates indexAdd = new IndexUpdates();
+    protected IndexUpdates indexRemove = new IndexUpdates();
+    // where a declared read-only transaction publishes its read version
+    protected Snapshots.Slot snapshotSlot = null;
+    // the running transaction published it (see TX.beginReadOnly())
+    protected boolean snapshot = false;
+    // a declared read-only transaction of the thread read a list that keeps history
+    protected boolean readsHistory = false;
+    // where a writing transaction or a singleton write is announced (see SerialLock)
+    protected SerialLock.Slot serialSlot = null;
+    // where the thread announces its epoch, and keeps the nodes it retired (see Epochs)
+    protected Epochs.Slot epochSlot = null;
+    // where the thread waits after Transaction.retry() (see Waiters)
+    protected Waiters.Slot waiterSlot = null;
+    // nodes read or written by the last transaction, for contention managers
+    protected int lastAccesses = 0;
+
+    protected LocalStorage(TXDomain domain) {
+        this.domain = domain;
     }
 
-    protected void addToIndexAdd(LinkedList list, LNode node) {
-        ArrayList<LNode> nodes = indexAdd.get(list);
-        if (nodes == null) {
-            nodes = new ArrayList<LNode>();
+    protected void setWriting() {
+        if (declaredReadOnly) {
+            throw new IllegalStateException("write in a read-only transaction");
         }
-        nodes.add(node);
-        indexAdd.put(list, nodes);
+        readOnly = false;
     }
 
-    protected void addToIndexRemove(LinkedList list, LNode node) {
-        ArrayList<LNode> nodes = indexRemove.get(list);
-        if (nodes == null) {
-            nodes = new ArrayList<LNode>();
+    protected void addToReadSet(LNode node) {
+        if (!declaredReadOnly) {
+            readSet.add(node);
         }
-        nodes.add(node);
-        indexRemove.put(list, nodes);
+    }
+
+    protected void putIntoWriteSet(LNode node, LNode next, Object val, boolean deleted, int historyLength) {
+        writeSet.put(node, next, val, deleted, historyLength);
+    }
+
+    protected void addToIndexAdd(ListIndex index, LNode node) {
+        indexAdd.add(index, node);
+    }
+
+    protected void addToIndexRemove(ListIndex index, LNode node) {
+        indexRemove.add(index, node);
     }
 
 }
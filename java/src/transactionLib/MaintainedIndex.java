@@ -0,0 +1,147 @@
+package transactionLib;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * An index kept up to date by a maintenance thread rather than by the writers,
+ * as in the contention-friendly and no hot spot skip lists of Crain, Gramoli and Raynal.
+ * Writers only touch the list: add() and remove() merely note that the list changed.
+ * The maintenance thread, one for all lists, then walks the list to index the nodes
+ * it has not seen yet and cleans the index of deleted nodes.
+ * Until it does, searches walk further along the list, which is still the truth.
+ * Chosen with -Dtdsl.index.async=true, and -Dtdsl.index.asyncPeriod=micros
+ * for the pause between passes (1000 by default).
+ */
+public class MaintainedIndex extends ListIndex {
+
+    private static final long PERIOD_NANOS = TimeUnit.MICROSECONDS.toNanos(
+            Long.getLong("tdsl.index.asyncPeriod", 1000));
+    // nodes indexed together by addAll(), so that the searches start from the previous one
+    private static final int BATCH = 64;
+
+    private static final CopyOnWriteArrayList<WeakReference<MaintainedIndex>> indexes =
+            new CopyOnWriteArrayList<WeakReference<MaintainedIndex>>();
+    private static Thread maintainer = null;
+
+    // whose epochs a pass runs in, see maintain()
+    private final TXDomain domain;
+    private final LNode headNode;
+    private final ListIndex index;
+    // set by writers, cleared by the maintenance thread before each pass
+    private volatile boolean changed = false;
+    // only used by the maintenance thread
+    private final LNode[] batch = new LNode[BATCH];
+
+    MaintainedIndex(TXDomain domain, LNode headNode, double indexProbability, double promotionProbability,
+                    int maxLevel, ListIndex index) {
+        super(headNode, indexProbability, promotionProbability, maxLevel);
+        this.domain = domain;
+        this.headNode = headNode;
+        this.index = index;
+        register(this);
+    }
+
+    private static synchronized void register(MaintainedIndex index) {
+        indexes.add(new WeakReference<MaintainedIndex>(index));
+        if (maintainer == null) {
+            maintainer = new Thread(MaintainedIndex::maintainAll, "tdsl-index-maintenance");
+            maintainer.setDaemon(true);
+            maintainer.start();
+        }
+    }
+
+    private static void maintainAll() {
+        while (true) {
+            for (WeakReference<MaintainedIndex> ref : indexes) {
+                MaintainedIndex index = ref.get();
+                if (index == null) {
+                    indexes.remove(ref); // its list is gone
+                } else if (index.changed) {
+                    index.changed = false;
+                    index.maintain();
+                }
+            }
+            LockSupport.parkNanos(PERIOD_NANOS);
+        }
+    }
+
+    /**
+     * One pass: indexes the nodes linked since the last one, then drops deleted nodes.
+     * A node linked while the pass runs may be missed, the change
+     * it was linked by marks the list for the next pass.
+     * The pass runs in an epoch, so that the nodes it walks are not reused meanwhile.
+     */
+    private void maintain() {
+        LocalStorage localStorage = domain.lStorage.get();
+        if (Epochs.enabled) {
+            domain.epochs.enter(localStorage);
+        }
+        try {
+            walk();
+        } finally {
+            if (Epochs.enabled) {
+                domain.epochs.exit(localStorage);
+            }
+        }
+    }
+
+    private void walk() {
+        int size = 0;
+        for (LNode n = headNode.next; n != null; n = n.next) {
+            if (n.val == null || !n.tryMarkWalked()) {
+                continue; // deleted, or handled by an earlier pass
+            }
+            // only the ones addAll() gives a level are marked indexed, the others can be reused
+            batch[size++] = n;
+            if (size == BATCH) {
+                index.addAll(batch, 0, size);
+                size = 0;
+            }
+        }
+        index.addAll(batch, 0, size);
+        Arrays.fill(batch, null); // not to keep deleted nodes alive
+        index.clean();
+    }
+
+    // a plain read first, so that writers of a list already marked do not write the shared field
+    private void markChanged() {
+        if (!changed) {
+            changed = true;
+        }
+    }
+
+    @Override
+    void add(LNode node) {
+        markChanged();
+    }
+
+    @Override
+    void remove(LNode node) {
+        markChanged();
+    }
+
+    @Override
+    void addAll(LNode[] nodes, int from, int to) {
+        markChanged();
+    }
+
+    @Override
+    void removeAll(LNode[] nodes, int from, int to) {
+        markChanged();
+    }
+
+    @Override
+    void clean() {
+        index.clean();
+    }
+
+    @Override
+    LNode getPred(int key) {
+        return index.getPred(key);
+    }
+
+}
@@ -0,0 +1,123 @@
+package transactionLib;
+
+import java.util.Arrays;
+
+/**
+ * Identity lookup of nodes stored in the array of a read or write set.
+ * <p>
+ * Up to LINEAR_LIMIT entries the array is simply scanned. Past that, positions
+ * are kept in an open-addressing (linear probing) table keyed by identity hash,
+ * guarded by a small Bloom filter (in the spirit of deuce's BloomFilter) so that
+ * a miss, the common case while traversing, usually costs no probe at all.
+ * Clearing only touches the slots that were used.
+ */
+public class NodeTable {
+
+    protected static final int LINEAR_LIMIT = 8;
+    private static final int BLOOM_BITS = 1 << 10;
+    private static final int INITIAL_CAPACITY = 64; // power of 2
+
+    private final long[] bloom = new long[BLOOM_BITS / Long.SIZE];
+    private int[] slots = new int[INITIAL_CAPACITY]; // position + 1, 0 is empty
+    private int[] slotOf = new int[INITIAL_CAPACITY / 2]; // position -> its slot
+
+    private static int hash(LNode node) {
+        int h = System.identityHashCode(node);
+        return h ^ (h >>> 16);
+    }
+
+    private boolean bloomContains(int hash) {
+        int bit1 = hash & (BLOOM_BITS - 1);
+        int bit2 = (hash >>> 20) & (BLOOM_BITS - 1);
+        return ((bloom[bit1 >>> 6] & (1L << bit1)) != 0)
+                && ((bloom[bit2 >>> 6] & (1L << bit2)) != 0);
+    }
+
+    private void bloomAdd(int hash) {
+        int bit1 = hash & (BLOOM_BITS - 1);
+        int bit2 = (hash >>> 20) & (BLOOM_BITS - 1);
+        bloom[bit1 >>> 6] |= (1L << bit1);
+        bloom[bit2 >>> 6] |= (1L << bit2);
+    }
+
+    /**
+     * @return the position of node in nodes[0..size), or -1
+     */
+    protected int find(LNode[] nodes, int size, LNode node) {
+        if (size <= LINEAR_LIMIT) {
+            for (int i = 0; i < size; i++) {
+                if (nodes[i] == node) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+        int h = hash(node);
+        if (!bloomContains(h)) {
+            return -1;
+        }
+        int mask = slots.length - 1;
+        for (int s = h & mask; ; s = (s + 1) & mask) {
+            int p = slots[s];
+            if (p == 0) {
+                return -1;
+            }
+            if (nodes[p - 1] == node) {
+                return p - 1;
+            }
+        }
+    }
+
+    /**
+     * Records that nodes[size - 1] was just appended.
+     */
+    protected void added(LNode[] nodes, int size) {
+        if (size <= LINEAR_LIMIT) {
+            return;
+        }
+        if (size * 2 > slots.length) {
+            // keep the load factor under 1/2, old slots are dropped wholesale
+            slots = new int[slots.length * 2];
+            slotOf = new int[slots.length / 2];
+            Arrays.fill(bloom, 0L);
+            for (int i = 0; i < size; i++) {
+                insert(nodes[i], i);
+            }
+            return;
+        }
+        if (size == LINEAR_LIMIT + 1) {
+            // leaving linear mode
+            for (int i = 0; i < size; i++) {
+                insert(nodes[i], i);
+            }
+            return;
+        }
+        insert(nodes[size - 1], size - 1);
+    }
+
+    private void insert(LNode node, int position) {
+        int h = hash(node);
+        bloomAdd(h);
+        int mask = slots.length - 1;
+        int s = h & mask;
+        while (slots[s] != 0) {
+            s = (s + 1) & mask;
+        }
+        slots[s] = position + 1;
+        slotOf[position] = s;
+    }
+
+    /**
+     * Forgets the first size entries.
+     */
+    protected void clear(int size) {
+        if (size <= LINEAR_LIMIT) {
+            return;
+        }
+        for (int i = 0; i < size; i++) {
+            slots[slotOf[i]] = 0;
+        }
+        Arrays.fill(bloom, 0L);
+    }
+
+}
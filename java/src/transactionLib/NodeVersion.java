@@ -0,0 +1,28 @@
+package transactionLib;
+
+/**
+ * An older state of an LNode, kept so that snapshot readers can see
+ * the node as it was at their read version.
+ * A node's versions are chained from newest to oldest.
+ */
+public class NodeVersion {
+
+    // the node did not exist yet at the version asked for
+    protected static final NodeVersion ABSENT = new NodeVersion(0L, false, null, null);
+    // older versions were dropped to bound the chain length
+    protected static final NodeVersion PRUNED = new NodeVersion(0L, false, null, null);
+
+    protected final long version;
+    protected final boolean deleted;
+    protected final LNode next;
+    protected final Object val;
+    protected volatile NodeVersion older = null;
+
+    protected NodeVersion(long version, boolean deleted, LNode next, Object val) {
+        this.version = version;
+        this.deleted = deleted;
+        this.next = next;
+        this.val = val;
+    }
+
+}
@@ -1,9 +1,82 @@
 package transactionLib;
 
+import java.lang.reflect.Field;
+import java.util.Arrays;
+
+import sun.misc.Unsafe;
+
+/**
+ * A node of a Queue, with one value (enqueued alone) or a segment of values
+ * (enqueued by a transaction, see LocalQueue), the ones from first to count.
+ * Which of them were dequeued is kept by the head of the queue (see Queue.Head).
+ */
 public class QNode {
 
-    protected QNode prev;
-    protected QNode next;
+    protected volatile QNode next;
     protected Object val; // TODO maybe use templates
+    // the segment, when there is one val is not used
+    protected Object[] vals;
+    protected final int first;
+    protected final int count;
+    // of the commit or singleton that enqueued the node, set before it is linked
+    protected long version;
+
+    /**
+     * Unsafe mechanics
+     */
+    private static final Unsafe UNSAFE;
+    private static final long nextOffset;
+
+    static {
+        try {
+            Field f = Unsafe.class.getDeclaredField("theUnsafe");
+            f.setAccessible(true);
+            UNSAFE = (Unsafe) f.get(null);
+            nextOffset = UNSAFE.objectFieldOffset
+                    (QNode.class.getDeclaredField("next"));
+        } catch (Exception e) {
+            throw new Error(e);
+        }
+    }
+
+    // the dummy of an empty queue
+    protected QNode() {
+        this.first = 0;
+        this.count = 0;
+    }
+
+    protected QNode(Object val) {
+        this.val = val;
+        this.first = 0;
+        this.count = 1;
+    }
+
+    /**
+     * A segment of the values vals[from] to vals[to - 1], vals is not copied.
+     */
+    protected QNode(Object[] vals, int from, int to) {
+        this.vals = vals;
+        this.first = from;
+        this.count = to;
+    }
+
+    protected Object get(int i) {
+        return vals == null ? val : vals[i];
+    }
+
+    // once dequeued, so the node does not keep the value from the garbage collector
+    protected void clear(int from, int to) {
+        if (vals == null) {
+            if (from < to) {
+                val = null;
+            }
+        } else {
+            Arrays.fill(vals, from, to, null);
+        }
+    }
+
+    protected boolean casNext(QNode expected, QNode node) {
+        return UNSAFE.compareAndSwapObject(this, nextOffset, expected, node);
+    }
 
 }
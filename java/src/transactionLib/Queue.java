@@ -1,62 +1,259 @@
 package transactionLib;
 
+import java.lang.reflect.Field;
+import java.util.Collection;
 import java.util.HashMap;
-import java.util.concurrent.atomic.AtomicLong;
 
+import sun.misc.Unsafe;
+
+/**
+ * A Michael-Scott queue of segments: the values are in the node of head, from where the dequeues
+ * stopped, and in the nodes after it. Singleton operations enqueue with a CAS on the next of
+ * the last node and dequeue with a CAS on head, one value at a time.
+ * A transaction links the values it enqueued as one segment, and its dequeues move head along,
+ * so its commit takes the same time however many it moved.
+ * Head is never changed, every dequeue replaces it, with its version. A transaction keeps the head
+ * it read first, and checks that it is still the head after reading values (a singleton may have
+ * dequeued them) and at commit. At commit a transaction that dequeues claims the head it read
+ * by a CAS to a claimed copy, which fails if a dequeue replaced it since,
+ * and one that enqueues claims the end of the queue by a CAS of CLAIMED into the next of the last node.
+ * So transactions that only enqueue and transactions that only dequeue (from a queue they do
+ * not empty) commit side by side. The singletons of an end wait while it is claimed, and only then.
+ * The tail is versioned by its nodes: each one has the version of the enqueue that linked it.
+ * A transaction that reached the end of the queue checks that nothing was linked after the node it found last.
+ */
 public class Queue {
-    //	private static final long lockMask = 0x2000000000000000L;
-    private static final long singletonMask = 0x4000000000000000L;
-    //	private static final long versionMask = lockMask | singletonMask;
-    private static final long versionNegMask = singletonMask;
-    private LockQueue qLock = new LockQueue();
-    private QNode head;
-    private QNode tail;
-    private int size;
-    //	// bit 61 is lock
-    // bit 62 is singleton
-    // 0 is false, 1 is true
-    // we are missing a bit because this is signed
-    private AtomicLong versionAndFlags = new AtomicLong();
-
-    protected long getVersion() {
-        return (versionAndFlags.get() & (~versionNegMask));
+
+    /**
+     * Where the dequeues stopped: the values not dequeued yet are the ones of node from index on,
+     * and the ones of the nodes after it.
+     */
+    static final class Head {
+        final QNode node;
+        final int index;
+        // of the last dequeue
+        final long version;
+        // by a transaction that commits dequeues
+        final boolean claimed;
+
+        Head(QNode node, int index, long version, boolean claimed) {
+            this.node = node;
+            this.index = index;
+            this.version = version;
+            this.claimed = claimed;
+        }
     }
 
-    protected void setVersion(long version) {
-        long l = versionAndFlags.get();
-//		assert ((l & lockMask) != 0);
-        l &= versionNegMask;
-        l |= (version & (~versionNegMask));
-        versionAndFlags.set(l);
+    // the next of the last node while a committing transaction links its enqueues after it
+    private static final QNode CLAIMED = new QNode();
+
+    private volatile Head head;
+    private volatile QNode tail;
+    // what take() returns when there is nothing to dequeue, null may be a value
+    private static final Object EMPTY = new Object();
+    // whose transactions and clock this queue uses
+    private final TXDomain domain;
+
+    /**
+     * Unsafe mechanics
+     */
+    private static final Unsafe UNSAFE;
+    private static final long headOffset;
+    private static final long tailOffset;
+
+    static {
+        try {
+            Field f = Unsafe.class.getDeclaredField("theUnsafe");
+            f.setAccessible(true);
+            UNSAFE = (Unsafe) f.get(null);
+            headOffset = UNSAFE.objectFieldOffset
+                    (Queue.class.getDeclaredField("head"));
+            tailOffset = UNSAFE.objectFieldOffset
+                    (Queue.class.getDeclaredField("tail"));
+        } catch (Exception e) {
+            throw new Error(e);
+        }
     }
 
-    protected boolean isSingleton() {
-        long l = versionAndFlags.get();
-        return (l & singletonMask) != 0;
+    public Queue() {
+        this(TXDomain.getDefault());
     }
 
-    protected void setSingleton(boolean value) {
-        long l = versionAndFlags.get();
-//		assert ((l & lockMask) != 0);
-        if (value) {
-            l |= singletonMask;
-            versionAndFlags.set(l);
-            return;
+    /**
+     * A queue of the given domain: only transactions begun there use it (see TXDomain).
+     */
+    public Queue(TXDomain domain) {
+        if (domain == null)
+            throw new NullPointerException();
+        this.domain = domain;
+        tail = new QNode();
+        head = new Head(tail, 0, 0, false);
+    }
+
+    // singletons run side by side, so a late one must not move the version back
+    private long dequeueVersion(Head h) {
+        return Math.max(h.version, domain.singletonVersion());
+    }
+
+    private boolean casHead(Head expected, Head h) {
+        return UNSAFE.compareAndSwapObject(this, headOffset, expected, h);
+    }
+
+    private boolean casTail(QNode expected, QNode node) {
+        return UNSAFE.compareAndSwapObject(this, tailOffset, expected, node);
+    }
+
+    /**
+     * Claims the end of the queue for the running transaction, which links its enqueues
+     * there at commit (see enqueueNodes()), the singleton enqueues wait until then.
+     *
+     * @return false if another transaction claimed it, or if something was linked
+     * after the end the running transaction found
+     */
+    protected boolean tryClaimTail(LocalQueue lQueue) {
+        QNode endNode = lQueue.endNode;
+        if (endNode != null) {
+            if (!endNode.casNext(null, CLAIMED)) {
+                return false;
+            }
+            lQueue.lastClaimed = endNode;
+            return true;
+        }
+        while (true) {
+            QNode last = tail;
+            QNode next = last.next;
+            if (next == CLAIMED) {
+                return false;
+            }
+            if (next != null) {
+                casTail(last, next); // help the enqueue that linked it
+            } else if (last.casNext(null, CLAIMED)) {
+                lQueue.lastClaimed = last;
+                return true;
+            }
         }
-        l &= (~singletonMask);
-        versionAndFlags.set(l);
     }
 
-    private void lock() {
-        qLock.lock();
+    /**
+     * Claims the head the running transaction read, it moves head at commit (see dequeueNodes()),
+     * the singleton dequeues wait until then.
+     *
+     * @return false if a dequeue replaced it since, or if another transaction claimed it
+     */
+    protected boolean tryClaimHead(LocalQueue lQueue) {
+        Head h = lQueue.headRead;
+        if (!casHead(h, new Head(h.node, h.index, h.version, true))) {
+            return false;
+        }
+        lQueue.headClaimed = true;
+        return true;
     }
 
-    protected boolean tryLock() {
-        return qLock.tryLock();
+    /**
+     * Gives back what the running transaction claimed and did not commit, called by TX.end().
+     */
+    protected void release(LocalQueue lQueue) {
+        if (lQueue.headClaimed) {
+            head = lQueue.headRead; // as it was, nothing could replace it meanwhile
+            lQueue.headClaimed = false;
+        }
+        if (lQueue.lastClaimed != null) {
+            lQueue.lastClaimed.next = null;
+            lQueue.lastClaimed = null;
+        }
+    }
+
+    /**
+     * @return true if what the running transaction read of the queue still holds:
+     * the head it read is still the head (or claimed by it),
+     * and nothing was linked after the end it found, nor is about to be
+     */
+    protected boolean validate(LocalQueue lQueue) {
+        Head h = lQueue.headRead;
+        if (h != null && !lQueue.headClaimed && head != h) {
+            return false;
+        }
+        QNode endNode = lQueue.endNode;
+        return endNode == null || endNode == lQueue.lastClaimed || endNode.next == null;
+    }
+
+    private LocalQueue localQueue(LocalStorage localStorage) {
+        HashMap<Queue, LocalQueue> qMap = localStorage.queueMap;
+        LocalQueue lQueue = qMap.get(this);
+        if (lQueue == null) {
+            lQueue = new LocalQueue();
+            qMap.put(this, lQueue);
+        }
+        return lQueue;
+    }
+
+    // called before the running transaction first reads the queue, nothing is locked
+    private LocalQueue readHead(LocalStorage localStorage) throws TXLibExceptions.AbortException {
+        LocalQueue lQueue = localQueue(localStorage);
+        if (lQueue.headRead != null) {
+            return lQueue;
+        }
+        Head h = head;
+        if (h.claimed) { // a transaction commits dequeues
+            throw TX.abort(localStorage);
+        }
+        lQueue.headRead = h;
+        if (localStorage.readVersion < h.version && !TX.extend(localStorage, h.version)) {
+            throw TX.abort(localStorage);
+        }
+        return lQueue;
     }
 
-    protected void unlock() {
-        qLock.unlock();
+    /**
+     * @return true if the queue moved since a transaction that read it as lQueue
+     * and retried (see Waiters): it reached the end and a value was linked after,
+     * or it read the head and a dequeue was committed after version
+     */
+    protected boolean changedSince(LocalQueue lQueue, long version) {
+        QNode endNode = lQueue.endNode;
+        if (endNode != null && endNode.next != null) {
+            return true;
+        }
+        return lQueue.nodeToDeq != null && head.version > version;
+    }
+
+    /**
+     * Moves where the running transaction dequeues (lQueue.nodeToDeq and lQueue.deqIndex)
+     * past the nodes it emptied.
+     *
+     * @return false at the end of the queue
+     */
+    private boolean readNext(LocalStorage localStorage, LocalQueue lQueue) throws TXLibExceptions.AbortException {
+        QNode node = lQueue.nodeToDeq;
+        int index = lQueue.deqIndex;
+        if (node == null) {
+            node = lQueue.headRead.node;
+            index = lQueue.headRead.index;
+        }
+        while (index == node.count) {
+            QNode next = node.next;
+            if (next == CLAIMED) {
+                // a transaction links after node as it commits
+                throw TX.abort(localStorage);
+            }
+            if (next == null) {
+                lQueue.endNode = node;
+                break;
+            }
+            if (lQueue.endNode != null) {
+                // linked after the transaction found the end
+                throw TX.abort(localStorage);
+            }
+            long version = next.version;
+            if (localStorage.readVersion < version && !TX.extend(localStorage, version)) {
+                throw TX.abort(localStorage);
+            }
+            node = next;
+            index = node.first;
+        }
+        lQueue.nodeToDeq = node;
+        lQueue.deqIndex = index;
+        return index < node.count;
     }
 
 // ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
@@ -156,45 +353,34 @@ public class Queue {
 //		}
 //	}
 
-    protected void enqueueNodes(LocalQueue lQueue) {
+    // an end of the queue is claimed and its singletons wait, see tryClaimTail() and tryClaimHead()
+
+    protected void enqueueNodes(LocalQueue lQueue, long version) {
         assert (lQueue != null);
         if (TX.DEBUG_MODE_QUEUE) {
             System.out.println("Queue enqueueNodes");
         }
-        try {
-            while (!lQueue.isEmpty()) {
-                if (TX.DEBUG_MODE_QUEUE) {
-                    System.out.println("Queue enqueueNodes - lQueue is not empty");
-                }
-                QNode node = new QNode();
-                node.val = lQueue.dequeue();
-                if (TX.DEBUG_MODE_QUEUE) {
-                    System.out.println("Queue enqueueNodes - lQueue node val is " + node.val);
-                }
-                node.next = null;
-                node.prev = tail;
-                size++;
-                if (tail == null) {
-                    tail = node;
-                    head = node;
-                } else {
-                    tail.next = node;
-                    tail = node;
-                }
-            }
-        } catch (TXLibExceptions.QueueIsEmptyException e) {
+        if (lQueue.isEmpty()) {
             if (TX.DEBUG_MODE_QUEUE) {
                 System.out.println("Queue enqueueNodes - local queue is empty");
             }
+            return;
         }
+        QNode segment = lQueue.toSegment();
+        segment.version = version;
+        QNode last = lQueue.lastClaimed;
+        lQueue.lastClaimed = null;
+        last.next = segment; // in place of CLAIMED
+        // tail may lag behind last, the singletons help it along then
+        casTail(last, segment);
 
     }
 
-    protected void dequeueNodes(QNode upToNode) {
+    protected void dequeueNodes(LocalQueue lQueue, long version) {
 
-        if (upToNode == null) {
+        if (!lQueue.dequeued) {
             if (TX.DEBUG_MODE_QUEUE) {
-                System.out.println("Queue dequeueNodes - upToNode is null");
+                System.out.println("Queue dequeueNodes - nothing dequeued");
             }
             return;
         }
@@ -203,52 +389,148 @@ public class Queue {
             System.out.println("Queue dequeueNodes");
         }
 
-        QNode curr = head;
-        while (curr != null && curr != upToNode.next) {
-            if (TX.DEBUG_MODE_QUEUE) {
-                System.out.println("Queue dequeueNodes - dequeueing");
+        QNode node = lQueue.nodeToDeq;
+        Head read = lQueue.headRead;
+        lQueue.headClaimed = false;
+        head = new Head(node, lQueue.deqIndex, version, false);
+        // the nodes before go with their values, the values dequeued from this one are cleared,
+        // once head moved past them (see peek())
+        node.clear(node == read.node ? read.index : node.first, lQueue.deqIndex);
+    }
+
+    // a singleton enqueue of node, which is not linked yet
+    private void link(QNode node, LocalStorage localStorage) {
+        domain.beginSingleton(localStorage);
+        // a transaction that reads node once linked extends past its version
+        node.version = domain.singletonVersion();
+        while (true) {
+            QNode last = tail;
+            QNode next = last.next;
+            if (next == CLAIMED) {
+                Thread.yield(); // a transaction links after last as it commits
+            } else if (next != null) {
+                casTail(last, next); // help the enqueue that linked it
+            } else if (last.casNext(null, node)) {
+                casTail(last, node);
+                break;
             }
-            size--;
-            curr = curr.next;
         }
-        head = curr;
-        if (curr == null) {
-            tail = null;
-            assert (size == 0);
+        domain.endSingleton(localStorage);
+    }
+
+    /**
+     * For singletons, waits while a transaction claims the head. Moves head past the nodes emptied.
+     *
+     * @return the head, with a value at its index, or null if the queue is empty
+     */
+    private Head first() {
+        while (true) {
+            Head h = head;
+            if (h.claimed) {
+                Thread.yield();
+                continue;
+            }
+            QNode node = h.node;
+            if (h.index < node.count) {
+                return h;
+            }
+            QNode next = node.next;
+            if (next == null || next == CLAIMED) {
+                return null;
+            }
+            QNode last = tail;
+            if (node == last) {
+                casTail(last, next); // tail lags behind, help it
+                continue;
+            }
+            casHead(h, new Head(next, next.first, h.version, false));
         }
     }
 
-    public void enqueue(Object val) throws TXLibExceptions.AbortException {
+    /**
+     * For a singleton that read the value at the index of h: if head did not move past it since,
+     * the value it read was not cleared yet.
+     */
+    private boolean notTakenSince(Head h) {
+        UNSAFE.loadFence(); // the value is read before head
+        Head now = head;
+        return now.node == h.node && now.index == h.index;
+    }
+
+    // for the running transaction, which read values of the queue: a singleton may have dequeued them
+    private void checkHead(LocalStorage localStorage, LocalQueue lQueue) throws TXLibExceptions.AbortException {
+        UNSAFE.loadFence(); // the values are read before head
+        if (head != lQueue.headRead) {
+            throw TX.abort(localStorage);
+        }
+    }
 
-        LocalStorage localStorage = TX.lStorage.get();
+    // dequeues, EMPTY if there is nothing to dequeue
+    private Object take(LocalStorage localStorage) throws TXLibExceptions.AbortException {
 
         // SINGLETON
         if (!localStorage.TX) {
 
             if (TX.DEBUG_MODE_QUEUE) {
-                System.out.println("Queue enqueue - singleton");
+                System.out.println("Queue dequeue - singleton");
             }
 
-            QNode node = new QNode();
-            node.val = val;
-            node.next = null;
-            node.prev = tail;
+            domain.beginSingleton(localStorage);
+            Head h;
+            while ((h = first()) != null) {
+                QNode node = h.node;
+                int index = h.index;
+                // a value is only cleared once taken, so the one read is the one taken if the CAS succeeds
+                Object ret = node.get(index);
+                if (casHead(h, new Head(node, index + 1, dequeueVersion(h), false))) {
+                    node.clear(index, index + 1);
+                    domain.endSingleton(localStorage);
+                    return ret;
+                }
+            }
+            domain.endSingleton(localStorage);
+            return EMPTY;
 
-            lock();
-            size++;
-            if (tail == null) {
-                tail = node;
-                head = node;
+        }
 
-            } else {
-                tail.next = node;
-                tail = node;
-            }
+        // TX
+
+        if (TX.DEBUG_MODE_QUEUE) {
+            System.out.println("Queue dequeue - in TX");
+        }
+
+        localStorage.setWriting();
+
+        LocalQueue lQueue = readHead(localStorage);
+
+        if (readNext(localStorage, lQueue)) { // dequeue from the queue
+            lQueue.dequeued = true;
+            Object ret = lQueue.nodeToDeq.get(lQueue.deqIndex++);
+            checkHead(localStorage, lQueue);
+            return ret;
+        }
+
+        if (TX.DEBUG_MODE_QUEUE) {
+            System.out.println("Queue dequeue - nodeToDeq is null");
+        }
+
+        // there is no node in queue, then try the localQueue
+        return lQueue.isEmpty() ? EMPTY : lQueue.dequeue();
+
+    }
+
+    public void enqueue(Object val) throws TXLibExceptions.AbortException {
+
+        LocalStorage localStorage = domain.localStorage();
 
-            setVersion(TX.getVersion());
-            setSingleton(true);
+        // SINGLETON
+        if (!localStorage.TX) {
 
-            unlock();
+            if (TX.DEBUG_MODE_QUEUE) {
+                System.out.println("Queue enqueue - singleton");
+            }
+
+            link(new QNode(val), localStorage);
             return;
         }
 
@@ -258,17 +540,9 @@ public class Queue {
             System.out.println("Queue enqueue - in TX");
         }
 
-        if (localStorage.readVersion < getVersion()) {
-            localStorage.TX = false;
-            TXLibExceptions excep = new TXLibExceptions();
-            throw excep.new AbortException();
-        }
-        if ((localStorage.readVersion == getVersion()) && (isSingleton())) {
-            TX.incrementAndGetVersion();
-            localStorage.TX = false;
-            TXLibExceptions excep = new TXLibExceptions();
-            throw excep.new AbortException();
-        }
+        // a blind write, nothing of the queue is read until commit
+
+        localStorage.setWriting();
 
         HashMap<Queue, LocalQueue> qMap = localStorage.queueMap;
         LocalQueue lQueue = qMap.get(this);
@@ -280,163 +554,216 @@ public class Queue {
 
     }
 
-    public Object dequeue() throws TXLibExceptions.QueueIsEmptyException, TXLibExceptions.AbortException {
+    /**
+     * Enqueues the values in the order of the collection.
+     * A singleton links them as one segment, so no dequeue sees some without the others.
+     */
+    public void enqueueAll(Collection<?> vals) throws TXLibExceptions.AbortException {
 
-        LocalStorage localStorage = TX.lStorage.get();
+        LocalStorage localStorage = domain.localStorage();
 
         // SINGLETON
         if (!localStorage.TX) {
 
             if (TX.DEBUG_MODE_QUEUE) {
-                System.out.println("Queue dequeue - singleton");
+                System.out.println("Queue enqueueAll - singleton");
             }
 
-            lock();
-            if (head == null) {
-                unlock();
-                TXLibExceptions excep = new TXLibExceptions();
-                throw excep.new QueueIsEmptyException();
-            }
-            QNode temp = head;
-            Object ret = temp.val;
-            head = head.next;
-            if (head == null) {
-                tail = null;
-            } else {
-                head.prev = null;
+            Object[] segment = vals.toArray();
+            if (segment.length > 0) {
+                link(new QNode(segment, 0, segment.length), localStorage);
             }
-            size--;
-            setVersion(TX.getVersion());
-            setSingleton(true);
-            unlock();
-            return ret;
-
+            return;
         }
 
         // TX
 
         if (TX.DEBUG_MODE_QUEUE) {
-            System.out.println("Queue dequeue - in TX");
+            System.out.println("Queue enqueueAll - in TX");
         }
 
-        if (localStorage.readVersion < getVersion()) {
-            localStorage.TX = false;
-            TXLibExceptions excep = new TXLibExceptions();
-            throw excep.new AbortException();
-        }
-        if ((localStorage.readVersion == getVersion()) && (isSingleton())) {
-            TX.incrementAndGetVersion();
-            localStorage.TX = false;
-            TXLibExceptions excep = new TXLibExceptions();
-            throw excep.new AbortException();
-        }
+        localStorage.setWriting();
 
-        if (!tryLock()) { // if queue is locked by another thread
-            localStorage.TX = false;
-            TXLibExceptions excep = new TXLibExceptions();
-            throw excep.new AbortException();
-
-        }
-
-        // now we have the lock
         HashMap<Queue, LocalQueue> qMap = localStorage.queueMap;
         LocalQueue lQueue = qMap.get(this);
         if (lQueue == null) {
             lQueue = new LocalQueue();
+            qMap.put(this, lQueue);
+        }
+        for (Object val : vals) {
+            lQueue.enqueue(val);
         }
 
-        if (lQueue.firstDeq) {
-            if (TX.DEBUG_MODE_QUEUE) {
-                System.out.println("Queue dequeue - first dequeue");
-            }
-            // if this is the first dequeue then try to dequeue the tail
-            lQueue.firstDeq = false;
-            lQueue.nodeToDeq = head;
-        } else if (lQueue.nodeToDeq != null) {
-            lQueue.nodeToDeq = lQueue.nodeToDeq.next;
+    }
+
+    public Object dequeue() throws TXLibExceptions.QueueIsEmptyException, TXLibExceptions.AbortException {
+
+        Object ret = take(domain.localStorage());
+        if (ret == EMPTY) {
+            TXLibExceptions excep = new TXLibExceptions();
+            throw excep.new QueueIsEmptyException();
         }
+        return ret;
 
-        if (lQueue.nodeToDeq != null) { // dequeue from the queue
+    }
 
-            Object ret = lQueue.nodeToDeq.val;
-            qMap.put(this, lQueue);
+    /**
+     * Like dequeue(), without throwing when the queue is empty.
+     *
+     * @return the value dequeued, null if the queue is empty (or if null was enqueued)
+     */
+    public Object poll() throws TXLibExceptions.AbortException {
 
-            return ret;
+        Object ret = take(domain.localStorage());
+        return ret == EMPTY ? null : ret;
+
+    }
+
+    /**
+     * @return the value dequeue() would return, null if the queue is empty (or if null was enqueued)
+     */
+    public Object peek() throws TXLibExceptions.AbortException {
+
+        LocalStorage localStorage = domain.localStorage();
+
+        // SINGLETON
+        if (!localStorage.TX) {
+
+            if (TX.DEBUG_MODE_QUEUE) {
+                System.out.println("Queue peek - singleton");
+            }
+
+            // a read, so the version stays
+            Head h;
+            while ((h = first()) != null) {
+                Object val = h.node.get(h.index);
+                if (notTakenSince(h)) {
+                    return val;
+                }
+                // taken, and maybe cleared, meanwhile
+            }
+            return null;
         }
 
+        // TX
+
         if (TX.DEBUG_MODE_QUEUE) {
-            System.out.println("Queue dequeue - nodeToDeq is null");
+            System.out.println("Queue peek - in TX");
         }
 
-        // there is no node in queue, then try the localQueue
-        qMap.put(this, lQueue);
-        return lQueue.dequeue(); // can throw an exception
+        // a read, the head is only claimed by transactions that dequeue
+        LocalQueue lQueue = readHead(localStorage);
+
+        if (readNext(localStorage, lQueue)) {
+            Object ret = lQueue.nodeToDeq.get(lQueue.deqIndex);
+            checkHead(localStorage, lQueue);
+            return ret;
+        }
+
+        return lQueue.isEmpty() ? null : lQueue.peek();
 
     }
 
-    public boolean isEmpty() throws TXLibExceptions.AbortException {
+    /**
+     * Dequeues up to max values into c, in order.
+     * The queue is locked (or read-version checked) once for them all,
+     * and a singleton takes each segment of values with one CAS.
+     *
+     * @return the number of values dequeued
+     */
+    public int drainTo(Collection<Object> c, int max) throws TXLibExceptions.AbortException {
 
-        LocalStorage localStorage = TX.lStorage.get();
+        LocalStorage localStorage = domain.localStorage();
+        int n = 0;
 
         // SINGLETON
         if (!localStorage.TX) {
+
             if (TX.DEBUG_MODE_QUEUE) {
-                System.out.println("Queue isEmpty - singleton");
+                System.out.println("Queue drainTo - singleton");
+            }
+
+            domain.beginSingleton(localStorage);
+            try {
+                Head h;
+                while (n < max && (h = first()) != null) {
+                    QNode node = h.node;
+                    int index = h.index;
+                    int to = node.count - index <= max - n ? node.count : index + (max - n);
+                    if (casHead(h, new Head(node, to, dequeueVersion(h), false))) {
+                        for (int i = index; i < to; i++) {
+                            c.add(node.get(i));
+                            node.clear(i, i + 1);
+                        }
+                        n += to - index;
+                    }
+                }
+            } finally {
+                // c may throw, the transactions must not wait on us then
+                domain.endSingleton(localStorage);
             }
-            int ret = size;
-            lock();
-            setVersion(TX.getVersion());
-            setSingleton(true);
-            unlock();
-            return (ret <= 0);
+            return n;
         }
 
         // TX
-        if (TX.DEBUG_MODE_QUEUE) {
-            System.out.println("Queue isEmpty - in TX");
-        }
 
         if (TX.DEBUG_MODE_QUEUE) {
-            System.out.println("Queue isEmpty - now not locked by me");
+            System.out.println("Queue drainTo - in TX");
         }
 
-        if (localStorage.readVersion < getVersion()) {
-            localStorage.TX = false;
-            TXLibExceptions excep = new TXLibExceptions();
-            throw excep.new AbortException();
+        localStorage.setWriting();
+
+        LocalQueue lQueue = readHead(localStorage);
+
+        // one read-version check per node
+        while (n < max && readNext(localStorage, lQueue)) {
+            QNode node = lQueue.nodeToDeq;
+            int index = lQueue.deqIndex;
+            int to = node.count - index <= max - n ? node.count : index + (max - n);
+            for (int i = index; i < to; i++) {
+                Object val = node.get(i);
+                checkHead(localStorage, lQueue);
+                c.add(val);
+            }
+            n += to - index;
+            lQueue.deqIndex = to;
+            lQueue.dequeued = true;
         }
-        if ((localStorage.readVersion == getVersion()) && (isSingleton())) {
-            TX.incrementAndGetVersion();
-            localStorage.TX = false;
-            TXLibExceptions excep = new TXLibExceptions();
-            throw excep.new AbortException();
+
+        // then the localQueue
+        while (n < max && !lQueue.isEmpty()) {
+            c.add(lQueue.dequeue());
+            n++;
         }
+        return n;
+
+    }
+
+    public boolean isEmpty() throws TXLibExceptions.AbortException {
 
-        if (!tryLock()) { // if queue is locked by another thread
+        LocalStorage localStorage = domain.localStorage();
 
+        // SINGLETON
+        if (!localStorage.TX) {
             if (TX.DEBUG_MODE_QUEUE) {
-                System.out.println("Queue isEmpty - couldn't lock");
+                System.out.println("Queue isEmpty - singleton");
             }
+            // a read, so the version stays
+            return first() == null;
+        }
 
-            localStorage.TX = false;
-            TXLibExceptions excep = new TXLibExceptions();
-            throw excep.new AbortException();
-
+        // TX
+        if (TX.DEBUG_MODE_QUEUE) {
+            System.out.println("Queue isEmpty - in TX");
         }
 
-        // now we have the lock
-        if (size > 0) {
+        LocalQueue lQueue = readHead(localStorage);
+
+        if (readNext(localStorage, lQueue)) {
             return false;
         }
 
         // check lQueue
-        HashMap<Queue, LocalQueue> qMap = localStorage.queueMap;
-        LocalQueue lQueue = qMap.get(this);
-        if (lQueue == null) {
-            lQueue = new LocalQueue();
-        }
-        qMap.put(this, lQueue);
-
         return lQueue.isEmpty();
 
     }
@@ -0,0 +1,46 @@
+package transactionLib;
+
+import java.util.Arrays;
+
+/**
+ * The read set of a thread's transaction.
+ * An array that is reset at the end of every transaction,
+ * holding each node once so that commit validates it once.
+ */
+public class ReadSet {
+
+    private static final int INITIAL_CAPACITY = 32;
+
+    private LNode[] nodes = new LNode[INITIAL_CAPACITY];
+    private int size = 0;
+    private final NodeTable lookup = new NodeTable();
+
+    protected void add(LNode node) {
+        if (size > 0 && nodes[size - 1] == node) {
+            return; // traversals often record the same pred twice in a row
+        }
+        if (lookup.find(nodes, size, node) >= 0) {
+            return;
+        }
+        if (size == nodes.length) {
+            nodes = Arrays.copyOf(nodes, size * 2);
+        }
+        nodes[size++] = node;
+        lookup.added(nodes, size);
+    }
+
+    protected int size() {
+        return size;
+    }
+
+    protected LNode get(int i) {
+        return nodes[i];
+    }
+
+    protected void clear() {
+        lookup.clear(size);
+        Arrays.fill(nodes, 0, size, null);
+        size = 0;
+    }
+
+}
@@ -0,0 +1,91 @@
+package transactionLib;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Lets a transaction that keeps aborting run alone (see ContentionManager).
+ * Writing transactions (in TX.begin()) and singleton writes (see TXDomain.beginSingleton())
+ * announce themselves in a per-thread slot. A serial transaction waits for them
+ * to drain before running, and holds new ones back until it ends, so nothing
+ * can make it abort. Read-only transactions are not held back, they cannot make it abort.
+ * A serial transaction runs alone in every domain.
+ */
+public class SerialLock {
+
+    protected static class Slot {
+        private final WeakReference<Thread> owner = new WeakReference<Thread>(Thread.currentThread());
+        private volatile boolean active = false;
+    }
+
+    private static final CopyOnWriteArrayList<Slot> slots = new CopyOnWriteArrayList<Slot>();
+
+    // slots are only used once a contention manager can go serial
+    private static volatile boolean enabled = false;
+    private static volatile boolean serial = false;
+    private static final ReentrantLock serialLock = new ReentrantLock();
+
+    protected static void enable() {
+        enabled = true;
+    }
+
+    protected static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return true if the calling thread runs a serial transaction
+     */
+    protected static boolean isSerial() {
+        return serialLock.isHeldByCurrentThread();
+    }
+
+    protected static void enterShared(LocalStorage localStorage) {
+        Slot slot = localStorage.serialSlot;
+        if (slot == null) {
+            slot = new Slot();
+            slots.add(slot);
+            localStorage.serialSlot = slot;
+        }
+        while (true) {
+            slot.active = true;
+            // a serial transaction sets serial before reading the slots,
+            // and begins like any other
+            if (!serial || serialLock.isHeldByCurrentThread()) {
+                return;
+            }
+            slot.active = false;
+            while (serial) {
+                Thread.yield();
+            }
+        }
+    }
+
+    // (also when enterShared() was not called, then it does nothing)
+    protected static void exitShared(LocalStorage localStorage) {
+        Slot slot = localStorage.serialSlot;
+        if (slot != null) {
+            slot.active = false;
+        }
+    }
+
+    protected static void enterSerial() {
+        serialLock.lock();
+        serial = true;
+        for (Slot slot : slots) {
+            while (slot.active) {
+                Thread.yield();
+            }
+            if (slot.owner.get() == null) {
+                slots.remove(slot); // its thread is gone
+            }
+        }
+    }
+
+    protected static void exitSerial() {
+        serial = false;
+        serialLock.unlock();
+    }
+
+}
@@ -0,0 +1,74 @@
+package transactionLib;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Read versions of the snapshot (declared read-only) transactions in flight in a domain.
+ * Writers consult it to know which node versions may still be read.
+ */
+public class Snapshots {
+
+    private static final long NONE = Long.MAX_VALUE;
+
+    private final TXDomain domain;
+
+    protected static class Slot {
+        private final WeakReference<Thread> owner = new WeakReference<Thread>(Thread.currentThread());
+        private volatile long readVersion = NONE;
+    }
+
+    private final CopyOnWriteArrayList<Slot> slots = new CopyOnWriteArrayList<Slot>();
+
+    protected Snapshots(TXDomain domain) {
+        this.domain = domain;
+    }
+
+    /**
+     * Publishes a snapshot for the calling thread.
+     *
+     * @return its read version
+     */
+    protected long begin(LocalStorage localStorage) {
+        Slot slot = localStorage.snapshotSlot;
+        if (slot == null) {
+            slot = new Slot();
+            slots.add(slot);
+            localStorage.snapshotSlot = slot;
+        }
+        long published;
+        do {
+            published = domain.getVersion();
+            slot.readVersion = published;
+            // if the clock did not move while we published, any writer that
+            // missed our slot read the clock no later than published
+        } while (published != domain.getVersion());
+        // singletons take the version after the clock without moving it, so move it
+        // ourselves: the ones that missed our slot are then stamped no later than our read version
+        return domain.advanceVersion();
+    }
+
+    protected void end(LocalStorage localStorage) {
+        localStorage.snapshotSlot.readVersion = NONE;
+    }
+
+    /**
+     * Read the clock before calling, so that a snapshot begun concurrently
+     * is either seen or no older than the result.
+     *
+     * @return the oldest read version a snapshot may still use
+     */
+    protected long oldest(long clock) {
+        long oldest = clock;
+        for (Slot slot : slots) {
+            long readVersion = slot.readVersion;
+            if (readVersion < oldest) {
+                oldest = readVersion;
+            } else if (readVersion == NONE && slot.owner.get() == null) {
+                slots.remove(slot); // its thread is gone
+            }
+        }
+        return oldest;
+    }
+
+}
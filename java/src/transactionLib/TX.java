@@ -1,10 +1,7 @@
 package transactionLib;
 
-import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Map.Entry;
-import java.util.concurrent.atomic.AtomicLong;
 
 public class TX {
 
@@ -13,30 +10,174 @@ public class TX {
     private static final boolean DEBUG_MODE_TX = false;
     private static final boolean DEBUG_MODE_VERSION = false;
 
-    public static ThreadLocal<LocalStorage> lStorage = ThreadLocal.withInitial(LocalStorage::new);
+    // the transaction state of the default domain
+    public static ThreadLocal<LocalStorage> lStorage = TXDomain.getDefault().lStorage;
 
-    private static AtomicLong GVC = new AtomicLong();
+    public static final String CLOCK_PROPERTY = "tdsl.clock";
 
-    protected static long getVersion() {
-        return GVC.get();
+    public static final String COMMIT_SPINS_PROPERTY = "tdsl.commit.spins";
+
+    // how many times commit reads a lock held by another before it aborts, see lock()
+    private static final int commitSpins = Integer.getInteger(COMMIT_SPINS_PROPERTY, 128);
+
+    // thrown on every abort, so aborting allocates nothing
+    private static final TXLibExceptions.AbortException abortException = new TXLibExceptions().new AbortException();
+
+    /**
+     * Marks the running transaction as aborted.
+     *
+     * @return the exception to throw
+     */
+    protected static TXLibExceptions.AbortException abort(LocalStorage localStorage) {
+        localStorage.TX = false;
+        localStorage.domain.clock.onAbort();
+        return abortException;
+    }
+
+    /**
+     * Ends the running transaction like an abort, keeping what it read
+     * so that Transaction.run() waits for it to change before running it again (see Waiters).
+     *
+     * @return the exception to throw
+     */
+    protected static TXLibExceptions.AbortException retry(LocalStorage localStorage) {
+        if (!localStorage.TX) {
+            throw new IllegalStateException("retry outside a transaction");
+        }
+        localStorage.domain.waiters.watch(localStorage);
+        // not a conflict, so the clock is not told
+        localStorage.TX = false;
+        return abortException;
     }
 
-    protected static long incrementAndGetVersion() {
-        return GVC.incrementAndGet();
+    /**
+     * Moves the read version of the running transaction up to the clock,
+     * if nothing in its read set changed since the read version (timestamp extension).
+     * Reads call it on a version newer than the read version instead of aborting,
+     * then read again.
+     * A declared read-only transaction keeps no read set to check, so it cannot extend,
+     * but it still moves the clock past version so that it begins again after it.
+     *
+     * @param version the version that was too new
+     * @return true if the read version was moved to at least version
+     */
+    protected static boolean extend(LocalStorage localStorage, long version) {
+        if (localStorage.declaredReadOnly) {
+            // (a singleton version the clock may not show, see TXDomain.singletonVersion())
+            localStorage.domain.clock.catchUp(version);
+            return false;
+        }
+        VersionClock clock = localStorage.domain.clock;
+        // read before validating, so that a commit we miss gets a later version
+        long readVersion = clock.read();
+        if (readVersion < version) {
+            // a singleton (or a lazy clock) took a version after the clock
+            clock.catchUp(version);
+            readVersion = clock.read();
+        }
+        long oldReadVersion = localStorage.readVersion;
+        ReadSet readSet = localStorage.readSet;
+        for (int i = 0; i < readSet.size(); i++) {
+            LNode node = readSet.get(i);
+            if (node.isLocked() || node.getVersion() > oldReadVersion) {
+                return false;
+            }
+        }
+        HashMap<Queue, LocalQueue> qMap = localStorage.queueMap;
+        if (!qMap.isEmpty()) {
+            for (Entry<Queue, LocalQueue> entry : qMap.entrySet()) {
+                if (!entry.getKey().validate(entry.getValue())) {
+                    return false;
+                }
+            }
+        }
+        localStorage.readVersion = readVersion;
+        return true;
     }
 
+    /**
+     * Locks node for commit, waiting a little if another thread holds it:
+     * writers hold their locks for a short while, so waiting is cheaper than aborting.
+     * Gives up after -Dtdsl.commit.spins reads of the lock (128 by default, 0 does not wait),
+     * since the holder may itself wait for a lock we hold.
+     */
+    private static boolean lock(LNode node) {
+        int spins = commitSpins;
+        while (!node.tryLock()) {
+            do {
+                if (--spins < 0) {
+                    return false;
+                }
+            } while (node.isLocked());
+        }
+        return true;
+    }
+
+    /**
+     * Begins a transaction on the structures of the default domain (see TXDomain).
+     */
     public static void TXbegin() {
+        begin(lStorage.get());
+    }
+
+    protected static void begin(LocalStorage localStorage) {
 
         if (DEBUG_MODE_TX) {
             System.out.println("TXbegin");
         }
 
-        LocalStorage localStorage = lStorage.get();
+        localStorage.domain.enterTX();
+        // a writing transaction waits while another one runs alone (see SerialLock)
+        if (SerialLock.isEnabled()) {
+            SerialLock.enterShared(localStorage);
+        }
         localStorage.TX = true;
-        localStorage.readVersion = getVersion();
+        if (Epochs.enabled) {
+            localStorage.domain.epochs.enter(localStorage);
+        }
+        localStorage.readVersion = localStorage.domain.getVersion();
+    }
+
+    /**
+     * Begins a transaction that promises not to write.
+     * Every read is validated against the read version when it happens,
+     * so no read set is kept and the commit has nothing to validate.
+     * On lists that keep history the transaction reads a snapshot instead,
+     * and older states it may still read are kept until it ends.
+     * Beginning a snapshot moves the clock, so only the threads whose read-only
+     * transactions read such lists do (the first one aborts once to begin it).
+     *
+     * @throws IllegalStateException (later) if the transaction writes
+     */
+    public static void TXbeginReadOnly() {
+        beginReadOnly(lStorage.get());
+    }
+
+    protected static void beginReadOnly(LocalStorage localStorage) {
+
+        if (DEBUG_MODE_TX) {
+            System.out.println("TXbeginReadOnly");
+        }
+
+        localStorage.domain.enterTX();
+        localStorage.TX = true;
+        localStorage.declaredReadOnly = true;
+        if (Epochs.enabled) {
+            localStorage.domain.epochs.enter(localStorage);
+        }
+        if (localStorage.readsHistory) {
+            localStorage.snapshot = true;
+            localStorage.readVersion = localStorage.domain.snapshots.begin(localStorage);
+        } else {
+            localStorage.readVersion = localStorage.domain.getVersion();
+        }
     }
 
     public static boolean TXend() throws TXLibExceptions.AbortException {
+        return end(lStorage.get());
+    }
+
+    protected static boolean end(LocalStorage localStorage) throws TXLibExceptions.AbortException {
 
         if (DEBUG_MODE_TX) {
             System.out.println("TXend");
@@ -44,9 +185,12 @@ public class TX {
 
         boolean abort = false;
 
-        LocalStorage localStorage = lStorage.get();
+        TXDomain domain = localStorage.domain;
 
-        if (!localStorage.TX) {
+        // (then the clock was already told, by abort())
+        boolean abortedBefore = !localStorage.TX;
+
+        if (abortedBefore) {
             if (DEBUG_MODE_TX) {
                 System.out.println("TXend - abort the TX");
             }
@@ -55,65 +199,68 @@ public class TX {
 
         // locking write set
 
-        HashMap<LNode, WriteElement> writeSet = localStorage.writeSet;
+        WriteSet writeSet = localStorage.writeSet;
 
-        HashSet<LNode> lockedLNodes = new HashSet<>();
+        // nodes are locked in key order, so the locked ones are a prefix of it
+        int lockedLNodes = 0;
 
         if (!abort) {
 
-            for (Entry<LNode, WriteElement> entry : writeSet.entrySet()) {
-                LNode node = entry.getKey();
-                if (!node.tryLock()) {
+            writeSet.sortForLocking();
+            for (int i = 0; i < writeSet.size(); i++) {
+                LNode node = writeSet.getLockNode(i);
+                if (!lock(node)) {
                     abort = true;
                     break;
                 }
-                lockedLNodes.add(node);
+                lockedLNodes++;
             }
 
         }
-        // locking queues
+        // claiming the heads of the queues we dequeue from, and the ends of the ones we enqueue to
+        // (the queue map is only iterated when used, iterating allocates)
         HashMap<Queue, LocalQueue> qMap = localStorage.queueMap;
 
-        if (!abort) {
+        if (!abort && !qMap.isEmpty()) {
 
             for (Entry<Queue, LocalQueue> entry : qMap.entrySet()) {
 
+                LocalQueue lQueue = entry.getValue();
                 Queue queue = entry.getKey();
 
-                if (!queue.tryLock()) { // if queue is locked by another thread
+                if (lQueue.dequeued && !queue.tryClaimHead(lQueue)) { // claimed by another transaction, or moved
                     abort = true;
                     break;
+                }
 
+                if (lQueue.isEmpty()) {
+                    continue; // nothing to link
                 }
 
-                LocalQueue lQueue = entry.getValue();
-                lQueue.isLockedByMe = true;
+                if (!queue.tryClaimTail(lQueue)) { // claimed by another transaction, or moved
+                    abort = true;
+                    break;
+                }
 
             }
         }
 
         // validate read set
+        // (a declared read-only transaction validated its reads as it went)
 
-        HashSet<LNode> readSet = localStorage.readSet;
+        ReadSet readSet = localStorage.readSet;
 
-        if (!abort) {
+        if (!abort && !localStorage.declaredReadOnly) {
 
-            for (LNode node : readSet) {
-                if (!lockedLNodes.contains(node) && node.isLocked()) {
+            for (int i = 0; i < readSet.size(); i++) {
+                LNode node = readSet.get(i);
+                if (node.isLocked() && writeSet.get(node) == null) {
                     // someone else holds the lock
                     abort = true;
                     break;
                 } else if (node.getVersion() > localStorage.readVersion) {
                     abort = true;
                     break;
-                } else if (node.getVersion() == localStorage.readVersion && node.isSingleton()) {
-                    incrementAndGetVersion(); // increment GVC
-                    node.setSingleton(false);
-                    if (DEBUG_MODE_VERSION) {
-                        System.out.println("singleton - increment GVC");
-                    }
-                    abort = true;
-                    break;
                 }
 
             }
@@ -122,16 +269,12 @@ public class TX {
 
         // validate queue
 
-        if (!abort) {
+        if (!abort && !localStorage.declaredReadOnly && !qMap.isEmpty()) {
 
             for (Entry<Queue, LocalQueue> entry : qMap.entrySet()) {
 
                 Queue queue = entry.getKey();
-                if (queue.getVersion() > localStorage.readVersion) {
-                    abort = true;
-                    break;
-                } else if (queue.getVersion() == localStorage.readVersion && queue.isSingleton()) {
-                    incrementAndGetVersion(); // increment GVC
+                if (!queue.validate(entry.getValue())) {
                     abort = true;
                     break;
                 }
@@ -140,12 +283,12 @@ public class TX {
 
         }
 
-        // increment GVC
+        // get the write version
 
         long writeVersion = 0;
 
         if (!abort && !localStorage.readOnly) {
-            writeVersion = incrementAndGetVersion();
+            writeVersion = domain.clock.tick(localStorage.readVersion);
             assert (writeVersion > localStorage.readVersion);
             localStorage.writeVersion = writeVersion;
         }
@@ -154,9 +297,17 @@ public class TX {
         if (!abort && !localStorage.readOnly) {
             // LinkedList
 
-            for (Entry<LNode, WriteElement> entry : writeSet.entrySet()) {
-                LNode node = entry.getKey();
-                WriteElement we = entry.getValue();
+            long oldestSnapshot = -1;
+            for (int i = 0; i < writeSet.size(); i++) {
+                LNode node = writeSet.getNode(i);
+                WriteElement we = writeSet.getElement(i);
+
+                if (we.historyLength > 0) {
+                    if (oldestSnapshot < 0) {
+                        oldestSnapshot = domain.snapshots.oldest(writeVersion);
+                    }
+                    node.saveVersion(writeVersion, oldestSnapshot, we.historyLength);
+                }
 
                 node.next = we.next;
                 node.val = we.val; // when node val changed because of put
@@ -165,11 +316,10 @@ public class TX {
                     node.val = null; // for index
                 }
                 node.setVersion(writeVersion);
-                node.setSingleton(false);
             }
         }
 
-        if (!abort) {
+        if (!abort && !localStorage.readOnly && !qMap.isEmpty()) {
             // Queue
 
             for (Entry<Queue, LocalQueue> entry : qMap.entrySet()) {
@@ -177,13 +327,8 @@ public class TX {
                 Queue queue = entry.getKey();
                 LocalQueue lQueue = entry.getValue();
 
-                queue.dequeueNodes(lQueue.nodeToDeq);
-                queue.enqueueNodes(lQueue);
-                if (TX.DEBUG_MODE_QUEUE) {
-                    System.out.println("commit queue before set version");
-                }
-                queue.setVersion(writeVersion);
-                queue.setSingleton(false);
+                queue.dequeueNodes(lQueue, writeVersion);
+                queue.enqueueNodes(lQueue, writeVersion);
 
             }
 
@@ -191,45 +336,53 @@ public class TX {
 
         // release locks, even if abort
 
-        lockedLNodes.forEach(LNode::unlock);
+        for (int i = 0; i < lockedLNodes; i++) {
+            writeSet.getLockNode(i).unlock();
+        }
 
-        for (Entry<Queue, LocalQueue> entry : qMap.entrySet()) {
+        if (!qMap.isEmpty()) {
+            for (Entry<Queue, LocalQueue> entry : qMap.entrySet()) {
 
-            Queue queue = entry.getKey();
-            LocalQueue lQueue = entry.getValue();
-            if (lQueue.isLockedByMe) {
-                queue.unlock();
-                lQueue.isLockedByMe = false;
+                entry.getKey().release(entry.getValue());
             }
         }
 
+        // the transactions waiting for what we wrote, now that it is seen
+        if (!abort && !localStorage.readOnly) {
+            domain.waiters.wake();
+        }
+
         // update index
         if (!abort && !localStorage.readOnly) {
             // adding to index
-            HashMap<LinkedList, ArrayList<LNode>> indexMap = localStorage.indexAdd;
-            for (Entry<LinkedList, ArrayList<LNode>> entry : indexMap.entrySet()) {
-                LinkedList list = entry.getKey();
-                ArrayList<LNode> nodes = entry.getValue();
-                nodes.forEach(node -> list.index.add(node));
-            }
+            localStorage.indexAdd.addToIndexes();
             // removing from index
-            indexMap = localStorage.indexRemove;
-            for (Entry<LinkedList, ArrayList<LNode>> entry : indexMap.entrySet()) {
-                LinkedList list = entry.getKey();
-                ArrayList<LNode> nodes = entry.getValue();
-                nodes.forEach(node -> list.index.remove(node));
-            }
+            localStorage.indexRemove.removeFromIndexes();
+        }
+
+        // the transaction leaves its epoch, the nodes it removed can be reused later
+        if (Epochs.enabled) {
+            domain.epochs.retireRemoved(localStorage, !abort && !localStorage.readOnly);
+            domain.epochs.exit(localStorage);
         }
 
         // cleanup
 
+        localStorage.lastAccesses = readSet.size() + writeSet.size();
         localStorage.queueMap.clear();
         localStorage.writeSet.clear();
         localStorage.readSet.clear();
         localStorage.indexAdd.clear();
         localStorage.indexRemove.clear();
+        if (localStorage.snapshot) {
+            domain.snapshots.end(localStorage);
+            localStorage.snapshot = false;
+        }
         localStorage.TX = false;
         localStorage.readOnly = true;
+        localStorage.declaredReadOnly = false;
+        SerialLock.exitShared(localStorage);
+        domain.exitTX();
 
         if (DEBUG_MODE_TX) {
             if (abort) {
@@ -239,8 +392,10 @@ public class TX {
         }
 
         if (abort) {
-            TXLibExceptions excep = new TXLibExceptions();
-            throw excep.new AbortException();
+            if (!abortedBefore) {
+                domain.clock.onAbort();
+            }
+            throw abortException;
         }
 
         return true;
@@ -0,0 +1,142 @@
+package transactionLib;
+
+/**
+ * A group of structures with its own version clock and its own per-thread
+ * transaction state. Commits in one domain never read or move the clock of another,
+ * so structures of different domains do not contend on a clock,
+ * and snapshots of one domain do not keep history of another.
+ * A structure belongs to the domain it was built with, the default one if none was given.
+ * A transaction begun in a domain may only use the structures of that domain:
+ * a structure of another domain throws IllegalStateException, and so does
+ * beginning a transaction while one of another domain runs on the thread.
+ * Removed nodes are reused (see Epochs) by the lists of the domain they were removed from.
+ */
+public class TXDomain {
+
+    private static final TXDomain defaultDomain = new TXDomain();
+    // set once a domain other than the default one is built, until then no check is needed
+    private static volatile boolean several = false;
+    // the domain of the transaction running on the thread, if any
+    private static final ThreadLocal<TXDomain> active = new ThreadLocal<TXDomain>();
+
+    protected final VersionClock clock;
+    protected final Snapshots snapshots = new Snapshots(this);
+    protected final Epochs epochs = new Epochs();
+    protected final Waiters waiters = new Waiters();
+    protected final ThreadLocal<LocalStorage> lStorage = ThreadLocal.withInitial(() -> new LocalStorage(this));
+
+    /**
+     * A domain with the clock chosen by -Dtdsl.clock (see VersionClock).
+     */
+    public TXDomain() {
+        this(System.getProperty(TX.CLOCK_PROPERTY, "gv1"));
+    }
+
+    /**
+     * @param clock the name of the clock, as for -Dtdsl.clock
+     */
+    public TXDomain(String clock) {
+        this.clock = VersionClock.forName(clock);
+        if (defaultDomain != null) {
+            several = true;
+        }
+    }
+
+    /**
+     * @return the domain of the structures built without one, used by TX.TXbegin()
+     */
+    public static TXDomain getDefault() {
+        return defaultDomain;
+    }
+
+    /**
+     * @see TX#TXbegin()
+     */
+    public void TXbegin() {
+        TX.begin(lStorage.get());
+    }
+
+    /**
+     * @see TX#TXbeginReadOnly()
+     */
+    public void TXbeginReadOnly() {
+        TX.beginReadOnly(lStorage.get());
+    }
+
+    /**
+     * @see TX#TXend()
+     */
+    public boolean TXend() throws TXLibExceptions.AbortException {
+        return TX.end(lStorage.get());
+    }
+
+    /**
+     * The state of the calling thread, for an operation on a structure of this domain.
+     *
+     * @throws IllegalStateException if the thread runs a transaction of another domain
+     */
+    protected LocalStorage localStorage() {
+        LocalStorage localStorage = lStorage.get();
+        if (!localStorage.TX && several) {
+            TXDomain domain = active.get();
+            if (domain != null && domain != this) {
+                throw new IllegalStateException("a structure of another domain used in a transaction");
+            }
+        }
+        return localStorage;
+    }
+
+    // called when a transaction of this domain begins on the thread...
+    protected void enterTX() {
+        TXDomain domain = active.get();
+        if (domain != null && domain != this) {
+            throw new IllegalStateException("a transaction of another domain is running");
+        }
+        active.set(this);
+    }
+
+    // ...and when it ends
+    protected void exitTX() {
+        active.set(null);
+    }
+
+    protected long getVersion() {
+        return clock.read();
+    }
+
+    // moves the clock past every version handed out so far
+    protected long advanceVersion() {
+        return clock.advance();
+    }
+
+    /**
+     * The version of a singleton write, taken once its node (or queue) is locked.
+     * It is after the clock, like the version of a commit, so a transaction that
+     * began before the write does not see it, and one that meets it extends
+     * past it (see TX.extend()). Unlike a commit it does not move the clock:
+     * the readers that meet it do, and only if any does.
+     */
+    protected long singletonVersion() {
+        return clock.read() + 1;
+    }
+
+    /**
+     * Called before a singleton write, it waits while a transaction runs alone
+     * (see SerialLock), so that the write cannot make it abort.
+     */
+    protected void beginSingleton(LocalStorage localStorage) {
+        if (SerialLock.isEnabled()) {
+            SerialLock.enterShared(localStorage);
+        }
+    }
+
+    /**
+     * Called once the singleton write is seen (and its nodes unlocked),
+     * it wakes the transactions waiting in Transaction.retry().
+     */
+    protected void endSingleton(LocalStorage localStorage) {
+        SerialLock.exitShared(localStorage);
+        waiters.wake();
+    }
+
+}
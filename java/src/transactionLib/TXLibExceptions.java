@@ -10,6 +10,11 @@ public class TXLibExceptions {
     @SuppressWarnings("serial")
     public class AbortException extends RuntimeException {
 
+        public AbortException() {
+            // an abort is control flow, not an error: no stack trace to capture
+            super(null, null, false, false);
+        }
+
     }
 
 }
@@ -0,0 +1,297 @@
+package transactionLib;
+
+import sun.misc.Unsafe;
+
+import java.lang.reflect.Field;
+
+/**
+ * An index where the levels of an indexed node form a single tower:
+ * one object with the key of the node and an array of right links, one per level.
+ * A search steps down within the tower instead of to another index node,
+ * and an indexed node costs two objects instead of one per level.
+ * A tower is linked from the bottom level up, so a search that reaches it
+ * at some level can go on below. Levels are added as in Index but never removed.
+ */
+public class TowerIndex extends ListIndex {
+
+    /**
+     * Steps along a level after which addAll() and removeAll()
+     * stop walking from the previous position and descend from the top
+     */
+    private static final int MAX_FINGER_HOPS = 32;
+    /**
+     * Unsafe mechanics
+     */
+    private static final Unsafe UNSAFE;
+    private static final long levelOffset;
+    private static final long ABASE;
+    private static final int ASHIFT;
+
+    static {
+        try {
+            Field f = Unsafe.class.getDeclaredField("theUnsafe");
+            f.setAccessible(true);
+            UNSAFE = (Unsafe) f.get(null);
+            levelOffset = UNSAFE.objectFieldOffset
+                    (TowerIndex.class.getDeclaredField("level"));
+            ABASE = UNSAFE.arrayBaseOffset(Tower[].class);
+            ASHIFT = 31 - Integer.numberOfLeadingZeros(UNSAFE.arrayIndexScale(Tower[].class));
+        } catch (Exception e) {
+            throw new Error(e);
+        }
+    }
+
+    /**
+     * The tower of the head of the list, with every level
+     */
+    private final Tower head;
+
+    /**
+     * The number of levels in use, the others are empty
+     */
+    private volatile int level = 1;
+
+    TowerIndex(LNode headNode, double indexProbability, double promotionProbability, int maxLevel) {
+        super(headNode, indexProbability, promotionProbability, maxLevel);
+        head = new Tower(headNode, maxLevel);
+    }
+
+    /**
+     * Walks from the top level down to level to (0 is the lowest),
+     * unlinking the towers of deleted nodes found along the way.
+     * If preds is not null, also records the tower before key of every level below preds.length.
+     *
+     * @return the tower at level to right before key
+     */
+    private Tower descend(int key, int to, Tower[] preds) {
+        restart:
+        for (; ; ) {
+            Tower q = head;
+            for (int i = Math.max(level, to + 1) - 1; ; --i) {
+                for (Tower r = q.right(i); r != null; ) {
+                    if (r.node.val == null) {
+                        if (!q.unlink(i, r))
+                            continue restart;
+                        r = q.right(i);
+                        continue;
+                    }
+                    if (key <= r.key)
+                        break;
+                    q = r;
+                    r = r.right(i);
+                }
+                if (preds != null && i < preds.length)
+                    preds[i] = q;
+                if (i == to)
+                    return q;
+            }
+        }
+    }
+
+    @Override
+    void add(final LNode node) {
+        if (node == null)
+            throw new NullPointerException();
+        int height = randomLevel();
+        if (height > 0 && node.markIndexed())
+            insert(node, height);
+    }
+
+    private void insert(final LNode node, int height) {
+        int l = level;
+        if (height > l) {
+            // grow by one level at most, whoever grows it first
+            height = l + 1;
+            UNSAFE.compareAndSwapInt(this, levelOffset, l, height);
+        }
+        int key = node.key;
+        Tower t = new Tower(node, height);
+        Tower[] preds = new Tower[height];
+        descend(key, 0, preds);
+        for (int i = 0; i < height; ) {
+            Tower q = preds[i];
+            Tower r = q.right(i);
+            if ((r != null && (r.key < key || r.node.val == null)) || !q.link(i, r, t)) {
+                // changed since the search
+                if (node.val == null)
+                    return;
+                descend(key, 0, preds);
+                continue;
+            }
+            if (node.val == null)
+                return; // deleted meanwhile, searches unlink what we linked
+            i++;
+        }
+    }
+
+    @Override
+    void remove(final LNode node) {
+        if (node == null)
+            throw new NullPointerException();
+        descend(node.key, 0, null); // clean index
+    }
+
+    /**
+     * Adds nodes[from..to), sorted by increasing key, as add() would one by one.
+     * The search for each node starts, at every level, from where the search
+     * for the previous one ended, instead of descending from the top.
+     */
+    @Override
+    void addAll(final LNode[] nodes, int from, int to) {
+        Tower[] fingers = new Tower[maxLevel];
+        for (int n = from; n < to; n++) {
+            LNode node = nodes[n];
+            int height = randomLevel();
+            if (height == 0 || !node.markIndexed())
+                continue;
+            if (height > level) {
+                insert(node, height); // grows the index
+                continue;
+            }
+            int key = node.key;
+            Tower t = new Tower(node, height);
+            for (int i = 0; i < height; i++) {
+                for (; ; ) {
+                    Tower q = findPredecessorFrom(key, i, fingers);
+                    Tower r = q.right(i);
+                    if (r != null && (r.key < key || r.node.val == null))
+                        continue; // changed since the search
+                    if (q.link(i, r, t))
+                        break;
+                }
+                fingers[i] = t;
+                if (node.val == null)
+                    break; // deleted meanwhile
+            }
+        }
+    }
+
+    /**
+     * Cleans the index of nodes[from..to), sorted by increasing key,
+     * as remove() would one by one, reusing searches like addAll().
+     */
+    @Override
+    void removeAll(final LNode[] nodes, int from, int to) {
+        Tower[] fingers = new Tower[maxLevel];
+        for (int n = from; n < to; n++) {
+            int key = nodes[n].key;
+            for (int i = level - 1; i >= 0; --i) {
+                // walking up to key unlinks the towers of deleted nodes
+                findPredecessorFrom(key, i, fingers);
+            }
+        }
+    }
+
+    /**
+     * Walks every level from the head, unlinking the towers of deleted nodes.
+     */
+    @Override
+    void clean() {
+        for (int i = level - 1; i >= 0; --i) {
+            for (Tower q = head, r = q.right(i); r != null; ) {
+                if (r.node.val == null) {
+                    if (!q.unlink(i, r))
+                        q = head; // q was deleted, restart the level
+                    r = q.right(i);
+                    continue;
+                }
+                q = r;
+                r = r.right(i);
+            }
+        }
+    }
+
+    /**
+     * Like descend, for a single level, starting from fingers[i]
+     * when it is close enough. Updates fingers[i].
+     *
+     * @return the tower at level i right before key
+     */
+    private Tower findPredecessorFrom(int key, int i, Tower[] fingers) {
+        Tower q = fingers[i];
+        int hops = 0;
+        if (q == null || q.node.val == null || q.key >= key) {
+            q = descend(key, i, null);
+            hops = -1; // no limit when starting from the top
+        }
+        for (Tower r = q.right(i); r != null; ) {
+            if (r.node.val == null) {
+                if (!q.unlink(i, r)) {
+                    q = descend(key, i, null); // q was deleted
+                    hops = -1;
+                }
+                r = q.right(i);
+                continue;
+            }
+            if (key <= r.key)
+                break;
+            if (hops >= 0 && ++hops > MAX_FINGER_HOPS) {
+                q = descend(key, i, null); // the finger is too far behind
+                hops = -1;
+                r = q.right(i);
+                continue;
+            }
+            q = r;
+            r = r.right(i);
+        }
+        fingers[i] = q;
+        return q;
+    }
+
+    @Override
+    LNode getPred(final int key) {
+        for (; ; ) {
+            LNode b = descend(key, 0, null).node;
+            if (b.val != null) // not deleted
+                return b;
+        }
+    }
+
+    /**
+     * The levels of an indexed node.
+     */
+    static final class Tower {
+
+        final LNode node;
+        final int key; // copied from node, so comparisons stay in the tower
+        // right[i] is the next tower at level i, accessed with Unsafe
+        private final Tower[] right;
+
+        Tower(LNode node, int height) {
+            this.node = node;
+            this.key = node.key;
+            this.right = new Tower[height];
+        }
+
+        private static long offset(int i) {
+            return ((long) i << ASHIFT) + ABASE;
+        }
+
+        final Tower right(int i) {
+            return (Tower) UNSAFE.getObjectVolatile(right, offset(i));
+        }
+
+        final boolean casRight(int i, Tower cmp, Tower val) {
+            return UNSAFE.compareAndSwapObject(right, offset(i), cmp, val);
+        }
+
+        /**
+         * Tries to CAS newSucc as successor at level i, unless the node
+         * of this tower is known to be deleted (see Index.IndexNode.link).
+         */
+        final boolean link(int i, Tower succ, Tower newSucc) {
+            newSucc.right[i] = succ; // published by the CAS
+            return node.val != null && casRight(i, succ, newSucc);
+        }
+
+        /**
+         * Tries to CAS the right link at level i to skip over succ.
+         * Fails if the node of this tower is known to be deleted.
+         */
+        final boolean unlink(int i, Tower succ) {
+            return node.val != null && casRight(i, succ, succ.right(i));
+        }
+
+    }
+
+}
@@ -11,6 +11,13 @@ public abstract class Transaction implements Runnable {
 	private long elapsedTime = 0;
 	private long startTime = 0;
 	private CountDownLatch latch = null;
+	private TXDomain domain = TXDomain.getDefault();
+	private ContentionManager contentionManager = ContentionManager.getDefault();
+	// of the last run()
+	private int attempts = 0;
+	private long karma = 0;
+	private long firstAttemptTime = 0;
+	private boolean serial = false;
 	
 	public Transaction(CountDownLatch latch) {
 		startTime = System.currentTimeMillis();
@@ -18,6 +25,15 @@ public abstract class Transaction implements Runnable {
 	}
 	
 	public Transaction() {}
+
+	/**
+	 * A transaction on the structures of domain (see TXDomain).
+	 */
+	public Transaction(TXDomain domain) {
+		if (domain == null)
+			throw new NullPointerException();
+		this.domain = domain;
+	}
 	
     @Override
     public void run() {
@@ -30,25 +46,118 @@ public abstract class Transaction implements Runnable {
 			}
     	}
     	
-        while (true) {
-            try {
+        attempts = 0;
+        karma = 0;
+        firstAttemptTime = System.nanoTime();
+        serial = false;
+        boolean readOnly = isReadOnly();
+        LocalStorage localStorage = domain.lStorage.get();
+        
+        try {
+            while (true) {
+                attempts++;
+                int serialAfter = contentionManager.getSerialAfter();
+                if (!serial && serialAfter > 0 && attempts > serialAfter) {
+                    SerialLock.enterSerial();
+                    serial = true;
+                }
                 try {
-                    TX.TXbegin();                   
-                    execute();                   
-                } finally { TX.TXend(); }
-            } 
-            catch (TXLibExceptions.AbortException exp) {
-                continue;
-            } 
-            break; 
+                    try {
+                        if (readOnly)
+                            TX.beginReadOnly(localStorage);
+                        else
+                            TX.begin(localStorage);
+                        execute();                   
+                    } finally { TX.end(localStorage); }
+                } 
+                catch (TXLibExceptions.AbortException exp) {
+                    boolean retried = domain.waiters.isWatching(localStorage);
+                    if (!retried)
+                        karma += localStorage.lastAccesses;
+                    if (retried) {
+                        // not a conflict: wait for what it read to change, and not alone
+                        attempts--;
+                        if (serial) {
+                            SerialLock.exitSerial();
+                            serial = false;
+                        }
+                        domain.waiters.await(localStorage);
+                        continue;
+                    }
+                    if (!serial)
+                        contentionManager.onAbort(this);
+                    continue;
+                } 
+                break; 
+            }
+        } finally {
+            if (serial)
+                SerialLock.exitSerial();
+            contentionManager.onEnd(this);
         }
         
         elapsedTime = System.currentTimeMillis() - startTime;
     }
     
+    /**
+     * @return true if execute() never writes, so the transaction can run
+     * 		   in read-only mode (see TX.TXbeginReadOnly)
+     */
+    protected boolean isReadOnly() {
+    	return false;
+    }
+    
+    /**
+     * Sets how the retries of this transaction are managed,
+     * ContentionManager.getDefault() if never set.
+     */
+    public void setContentionManager(ContentionManager contentionManager) {
+    	this.contentionManager = contentionManager;
+    }
+    
+    /**
+     * @return the number of times the last run() began the transaction,
+     * 		   1 if it never aborted
+     */
+    public int getAttempts() {
+    	return attempts;
+    }
+    
+    /**
+     * @return true if the last run() ended up running the transaction alone
+     */
+    public boolean isSerial() {
+    	return serial;
+    }
+    
+    /**
+     * @return the number of nodes accessed by the aborted attempts of the last run()
+     */
+    public long getKarma() {
+    	return karma;
+    }
+    
+    /**
+     * @return the System.nanoTime() of the first attempt of the last run()
+     */
+    public long getFirstAttemptTime() {
+    	return firstAttemptTime;
+    }
+    
     public long getElapsedTime() {
     	return elapsedTime;
     }
     
+    /**
+     * Called by execute() when the transaction cannot go on until something it read
+     * changes, such as a queue it found empty. Ends the transaction (by throwing),
+     * and run() parks the thread until a commit or a singleton write changes
+     * a node or a queue the transaction read, then runs it again (see Waiters).
+     * An interrupt of the thread also ends the wait.
+     */
+    protected void retry() throws TXLibExceptions.AbortException {
+    	throw TX.retry(domain.lStorage.get());
+    }
+    
     public abstract void execute() throws TXLibExceptions.AbortException;
 }
\ No newline at end of file
@@ -0,0 +1,773 @@
+package transactionLib;
+
+import sun.misc.Unsafe;
+
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * A LinkedList whose data list is unrolled: a node holds a sorted chunk of up to
+ * chunkCapacity keys with their values, the keys from its own key up to the key of the next node.
+ * A scan reads, and a transaction validates, one node per chunk instead of one per key.
+ * <p>
+ * Chunks are immutable, an update writes a new one. A full chunk is split into two nodes,
+ * and a chunk left with few keys is merged into the node before it. Transactions put
+ * the new chunks, nodes and links in their write set, so TX.TXend publishes a split or
+ * a merge at once with the rest of the transaction. Snapshot reads are not kept:
+ * a declared read-only transaction validates its reads as it goes.
+ */
+public class UnrolledLinkedList implements Iterable<Object> {
+
+    public static final int DEFAULT_CHUNK_CAPACITY = 16;
+    // a chunk stands for several keys, so more of them are indexed than LinkedList nodes
+    private static final double INDEX_PROBABILITY = 0.5;
+
+    /**
+     * Unsafe mechanics
+     */
+    private static final Unsafe UNSAFE;
+
+    static {
+        try {
+            Field f = Unsafe.class.getDeclaredField("theUnsafe");
+            f.setAccessible(true);
+            UNSAFE = (Unsafe) f.get(null);
+        } catch (Exception e) {
+            throw new Error(e);
+        }
+    }
+
+    // a sentinel the index starts from, never written
+    private final LNode head = new LNode(Integer.MIN_VALUE, null);
+    // the chunk of the smallest keys, right after head, never deleted
+    private final LNode first;
+    private final ListIndex index;
+    private final int chunkCapacity;
+    private final TXDomain domain;
+
+    public UnrolledLinkedList() {
+        this(DEFAULT_CHUNK_CAPACITY);
+    }
+
+    /**
+     * @see LinkedList#LinkedList(TXDomain)
+     */
+    public UnrolledLinkedList(TXDomain domain) {
+        this(domain, DEFAULT_CHUNK_CAPACITY);
+    }
+
+    /**
+     * A list of chunks of up to chunkCapacity keys. Larger chunks make scans cheaper
+     * and updates, which copy a chunk, more expensive.
+     */
+    public UnrolledLinkedList(int chunkCapacity) {
+        this(TXDomain.getDefault(), chunkCapacity);
+    }
+
+    public UnrolledLinkedList(TXDomain domain, int chunkCapacity) {
+        if (domain == null)
+            throw new NullPointerException();
+        if (chunkCapacity < 2)
+            throw new IllegalArgumentException();
+        this.domain = domain;
+        this.chunkCapacity = chunkCapacity;
+        index = ListIndex.create(domain, head, INDEX_PROBABILITY, ListIndex.DEFAULT_PROMOTION_PROBABILITY,
+                ListIndex.DEFAULT_MAX_LEVEL);
+        first = new LNode(Integer.MIN_VALUE, Chunk.EMPTY);
+        head.next = first;
+    }
+
+    /**
+     * The keys and values of a node, sorted by key. Never changed once a node holds it.
+     */
+    static final class Chunk {
+
+        static final Chunk EMPTY = new Chunk(new int[0], new Object[0]);
+
+        final int[] keys;
+        final Object[] vals;
+
+        Chunk(int[] keys, Object[] vals) {
+            this.keys = keys;
+            this.vals = vals;
+        }
+
+        int size() {
+            return keys.length;
+        }
+
+        // the position of key, or -(insertion point) - 1
+        int find(int key) {
+            return Arrays.binarySearch(keys, key);
+        }
+
+        // the position of the first key not less than key
+        int from(int key) {
+            int i = find(key);
+            return (i >= 0) ? i : -i - 1;
+        }
+
+        Chunk set(int i, Object val) {
+            Object[] v = vals.clone();
+            v[i] = val;
+            return new Chunk(keys, v);
+        }
+
+        Chunk insert(int i, int key, Object val) {
+            int n = keys.length;
+            int[] k = new int[n + 1];
+            Object[] v = new Object[n + 1];
+            System.arraycopy(keys, 0, k, 0, i);
+            System.arraycopy(vals, 0, v, 0, i);
+            k[i] = key;
+            v[i] = val;
+            System.arraycopy(keys, i, k, i + 1, n - i);
+            System.arraycopy(vals, i, v, i + 1, n - i);
+            return new Chunk(k, v);
+        }
+
+        Chunk delete(int i) {
+            int n = keys.length;
+            int[] k = new int[n - 1];
+            Object[] v = new Object[n - 1];
+            System.arraycopy(keys, 0, k, 0, i);
+            System.arraycopy(vals, 0, v, 0, i);
+            System.arraycopy(keys, i + 1, k, i, n - i - 1);
+            System.arraycopy(vals, i + 1, v, i, n - i - 1);
+            return new Chunk(k, v);
+        }
+
+        Chunk slice(int from, int to) {
+            return new Chunk(Arrays.copyOfRange(keys, from, to), Arrays.copyOfRange(vals, from, to));
+        }
+
+        // the keys of c must all be greater than ours
+        Chunk append(Chunk c) {
+            int[] k = Arrays.copyOf(keys, keys.length + c.keys.length);
+            Object[] v = Arrays.copyOf(vals, vals.length + c.vals.length);
+            System.arraycopy(c.keys, 0, k, keys.length, c.keys.length);
+            System.arraycopy(c.vals, 0, v, vals.length, c.vals.length);
+            return new Chunk(k, v);
+        }
+
+    }
+
+    // chunks this small are merged into the node before them...
+    private boolean isSmall(Chunk chunk) {
+        return chunk.size() < chunkCapacity / 4;
+    }
+
+    // ...if the result fills at most half a chunk, so that it is not split again soon
+    private boolean canMerge(Chunk pred, Chunk chunk) {
+        return pred.size() + chunk.size() <= chunkCapacity / 2;
+    }
+
+    // SINGLETON
+
+    // the node whose range holds key, unless it changes meanwhile
+    private LNode findChunkSingleton(int key) {
+        LNode node = index.getPred(key);
+        LNode next = node.next;
+        while (next != null && next.key <= key) {
+            node = next;
+            next = node.next;
+        }
+        return node;
+    }
+
+    // the node before node, or null if node is no longer in the list
+    private LNode findPredSingleton(LNode node) {
+        LNode pred = index.getPred(node.key);
+        LNode next = pred.next;
+        while (next != node) {
+            if (next == null || next.key >= node.key) {
+                return null;
+            }
+            pred = next;
+            next = pred.next;
+        }
+        return pred;
+    }
+
+    /**
+     * Reads the chunk of node, and for an iterator its next node, unless node is locked meanwhile.
+     *
+     * @return the chunk, or null if node was deleted or its range no longer holds key
+     */
+    private Chunk readChunkSingleton(LNode node, int key, ChunkIterator iter) {
+        while (true) {
+            long l = node.waitUnlocked();
+            UNSAFE.loadFence();
+            Object val = node.val;
+            LNode n = node.next;
+            UNSAFE.loadFence();
+            // back-to-back singleton writes may leave the word as it was, so val and next
+            // are read again too: a write gives node a new chunk, chunks are never reused
+            if (node.getVersionAndFlags() != l || node.val != val || node.next != n) {
+                continue;
+            }
+            if (LNode.isDeleted(l) || (n != null && n.key <= key)) {
+                return null;
+            }
+            if (iter != null) {
+                iter.next = n;
+            }
+            return (Chunk) val;
+        }
+    }
+
+    private Object getSingleton(int key) {
+        while (true) {
+            Chunk chunk = readChunkSingleton(findChunkSingleton(key), key, null);
+            if (chunk != null) {
+                int i = chunk.find(key);
+                return (i >= 0) ? chunk.vals[i] : null;
+            }
+        }
+    }
+
+    // locks the node whose range holds key
+    private LNode lockChunkSingleton(int key) {
+        while (true) {
+            LNode node = findChunkSingleton(key);
+            if (!node.tryLock()) {
+                continue;
+            }
+            LNode next = node.next;
+            if (node.isDeleted() || (next != null && next.key <= key)) {
+                node.unlock();
+                continue;
+            }
+            return node;
+        }
+    }
+
+    private Object putSingleton(int key, Object val, boolean onlyIfAbsent) {
+        LNode node = lockChunkSingleton(key);
+        Chunk chunk = (Chunk) node.val;
+        long ver = domain.singletonVersion();
+        int i = chunk.find(key);
+        if (i >= 0) {
+            if (!onlyIfAbsent) {
+                node.val = chunk.set(i, val);
+                node.setVersion(ver);
+            }
+            node.unlock();
+            return chunk.vals[i];
+        }
+        Chunk grown = chunk.insert(-i - 1, key, val);
+        LNode added = null;
+        if (grown.size() <= chunkCapacity) {
+            node.val = grown;
+        } else {
+            int half = grown.size() / 2;
+            added = new LNode(grown.keys[half], grown.slice(half, grown.size()));
+            added.next = node.next;
+            added.setVersionNoLockAssert(ver);
+            node.val = grown.slice(0, half);
+            node.next = added;
+        }
+        node.setVersion(ver);
+        node.unlock();
+        if (added != null) {
+            index.add(added);
+        }
+        return null;
+    }
+
+    private Object removeSingleton(int key) {
+        LNode node = lockChunkSingleton(key);
+        Chunk chunk = (Chunk) node.val;
+        int i = chunk.find(key);
+        if (i < 0) {
+            node.unlock();
+            return null;
+        }
+        Chunk rest = chunk.delete(i);
+        node.val = rest;
+        node.setVersion(domain.singletonVersion());
+        node.unlock();
+        if (node != first && isSmall(rest)) {
+            mergeSingleton(node);
+        }
+        return chunk.vals[i];
+    }
+
+    // merges node into the node before it, gives up if either is busy
+    private void mergeSingleton(LNode node) {
+        LNode pred = findPredSingleton(node);
+        if (pred == null || !pred.tryLock()) {
+            return;
+        }
+        if (!node.tryLock()) {
+            pred.unlock();
+            return;
+        }
+        if (!pred.isDeleted() && pred.next == node && !node.isDeleted()
+                && isSmall((Chunk) node.val) && canMerge((Chunk) pred.val, (Chunk) node.val)) {
+            long ver = domain.singletonVersion();
+            pred.val = ((Chunk) pred.val).append((Chunk) node.val);
+            pred.next = node.next;
+            node.val = null; // for index
+            node.setVersionAndDeleted(ver, true);
+            pred.setVersion(ver);
+            node.unlock();
+            pred.unlock();
+            index.remove(node);
+            return;
+        }
+        node.unlock();
+        pred.unlock();
+    }
+
+    // TX
+
+    /**
+     * Aborts unless n, just read, was not changed since the read version.
+     *
+     * @return false if the read version was extended past n, which must then be read again
+     */
+    private boolean validate(LNode n, LocalStorage localStorage) throws TXLibExceptions.AbortException {
+        if (n.isLocked()) {
+            throw TX.abort(localStorage);
+        }
+        long version = n.getVersion();
+        if (version > localStorage.readVersion) {
+            if (TX.extend(localStorage, version)) {
+                return false;
+            }
+            throw TX.abort(localStorage);
+        }
+        return true;
+    }
+
+    private LNode getNext(LNode n, LocalStorage localStorage) throws TXLibExceptions.AbortException {
+        WriteElement we = localStorage.writeSet.get(n);
+        if (we != null) {
+            return we.next;
+        }
+        while (true) {
+            if (n.isLocked()) {
+                throw TX.abort(localStorage);
+            }
+            UNSAFE.loadFence();
+            LNode next = n.next;
+            UNSAFE.loadFence();
+            if (validate(n, localStorage)) {
+                return next;
+            }
+            if (n.isDeleted()) {
+                throw TX.abort(localStorage); // merged away since we reached it
+            }
+        }
+    }
+
+    private Chunk getChunk(LNode n, LocalStorage localStorage) throws TXLibExceptions.AbortException {
+        WriteElement we = localStorage.writeSet.get(n);
+        if (we != null) {
+            return (Chunk) we.val;
+        }
+        while (true) {
+            if (n.isLocked()) {
+                throw TX.abort(localStorage);
+            }
+            UNSAFE.loadFence();
+            Object val = n.val;
+            UNSAFE.loadFence();
+            if (validate(n, localStorage)) {
+                return (Chunk) val;
+            }
+        }
+    }
+
+    // a node not deleted before key, maybe head
+    private LNode getPred(int key, LocalStorage localStorage) throws TXLibExceptions.AbortException {
+        LNode pred = index.getPred(key);
+        while (pred != head) {
+            if (!validate(pred, localStorage)) {
+                continue;
+            }
+            WriteElement we = localStorage.writeSet.get(pred);
+            if ((we != null && we.deleted) || pred.isDeleted()) {
+                pred = index.getPred(pred.key);
+            } else {
+                break;
+            }
+        }
+        return pred;
+    }
+
+    // the node whose range holds key, added to the read set
+    private LNode findChunk(int key, LocalStorage localStorage) throws TXLibExceptions.AbortException {
+        LNode node = getPred(key, localStorage);
+        LNode next = getNext(node, localStorage);
+        while (next != null && next.key <= key) {
+            node = next;
+            next = getNext(node, localStorage);
+        }
+        localStorage.addToReadSet(node);
+        return node;
+    }
+
+    // the node before node, added to the read set
+    private LNode findPred(LNode node, LocalStorage localStorage) throws TXLibExceptions.AbortException {
+        LNode pred = getPred(node.key, localStorage);
+        LNode next = getNext(pred, localStorage);
+        while (next != node) {
+            pred = next;
+            next = getNext(pred, localStorage);
+        }
+        localStorage.addToReadSet(pred);
+        return pred;
+    }
+
+    private Object putTX(int key, Object val, boolean onlyIfAbsent, LocalStorage localStorage)
+            throws TXLibExceptions.AbortException {
+        localStorage.setWriting();
+        LNode node = findChunk(key, localStorage);
+        Chunk chunk = getChunk(node, localStorage);
+        int i = chunk.find(key);
+        if (i >= 0) {
+            if (!onlyIfAbsent) {
+                localStorage.putIntoWriteSet(node, getNext(node, localStorage), chunk.set(i, val), false, 0);
+            }
+            return chunk.vals[i];
+        }
+        LNode next = getNext(node, localStorage);
+        Chunk grown = chunk.insert(-i - 1, key, val);
+        if (grown.size() <= chunkCapacity) {
+            localStorage.putIntoWriteSet(node, next, grown, false, 0);
+            return null;
+        }
+        // split, the new node is linked and gets its fields at commit
+        int half = grown.size() / 2;
+        LNode added = new LNode(grown.keys[half], null);
+        localStorage.putIntoWriteSet(node, added, grown.slice(0, half), false, 0);
+        localStorage.putIntoWriteSet(added, next, grown.slice(half, grown.size()), false, 0);
+        localStorage.addToIndexAdd(index, added);
+        return null;
+    }
+
+    private Object removeTX(int key, LocalStorage localStorage) throws TXLibExceptions.AbortException {
+        localStorage.setWriting();
+        LNode node = findChunk(key, localStorage);
+        Chunk chunk = getChunk(node, localStorage);
+        int i = chunk.find(key);
+        if (i < 0) {
+            return null;
+        }
+        LNode next = getNext(node, localStorage);
+        Chunk rest = chunk.delete(i);
+        if (node != first && isSmall(rest)) {
+            LNode pred = findPred(node, localStorage);
+            Chunk predChunk = getChunk(pred, localStorage);
+            if (canMerge(predChunk, rest)) {
+                localStorage.putIntoWriteSet(pred, next, predChunk.append(rest), false, 0);
+                localStorage.putIntoWriteSet(node, next, rest, true, 0);
+                localStorage.addToIndexRemove(index, node);
+                return chunk.vals[i];
+            }
+        }
+        localStorage.putIntoWriteSet(node, next, rest, false, 0);
+        return chunk.vals[i];
+    }
+
+    private Object getTX(int key, LocalStorage localStorage) throws TXLibExceptions.AbortException {
+        Chunk chunk = getChunk(findChunk(key, localStorage), localStorage);
+        int i = chunk.find(key);
+        return (i >= 0) ? chunk.vals[i] : null;
+    }
+
+    // API, as LinkedList
+
+    /**
+     * @see LinkedList#put(Integer, Object)
+     */
+    public Object put(Integer key, Object val) throws TXLibExceptions.AbortException {
+        if (key == null)
+            throw new NullPointerException();
+        return put(key.intValue(), val);
+    }
+
+    /**
+     * @see LinkedList#put(int, Object)
+     */
+    public Object put(int key, Object val) throws TXLibExceptions.AbortException {
+        if (val == null)
+            throw new NullPointerException();
+        LocalStorage localStorage = domain.localStorage();
+        if (!localStorage.TX) {
+            domain.beginSingleton(localStorage);
+            try {
+                return putSingleton(key, val, false);
+            } finally {
+                domain.endSingleton(localStorage);
+            }
+        }
+        return putTX(key, val, false, localStorage);
+    }
+
+    /**
+     * @see LinkedList#putIfAbsent(Integer, Object)
+     */
+    public Object putIfAbsent(Integer key, Object val) throws TXLibExceptions.AbortException {
+        if (key == null)
+            throw new NullPointerException();
+        return putIfAbsent(key.intValue(), val);
+    }
+
+    /**
+     * @see LinkedList#putIfAbsent(int, Object)
+     */
+    public Object putIfAbsent(int key, Object val) throws TXLibExceptions.AbortException {
+        if (val == null)
+            throw new NullPointerException();
+        LocalStorage localStorage = domain.localStorage();
+        if (!localStorage.TX) {
+            domain.beginSingleton(localStorage);
+            try {
+                return putSingleton(key, val, true);
+            } finally {
+                domain.endSingleton(localStorage);
+            }
+        }
+        return putTX(key, val, true, localStorage);
+    }
+
+    /**
+     * @see LinkedList#remove(Integer)
+     */
+    public Object remove(Integer key) throws TXLibExceptions.AbortException {
+        if (key == null)
+            throw new NullPointerException();
+        return remove(key.intValue());
+    }
+
+    /**
+     * @see LinkedList#remove(int)
+     */
+    public Object remove(int key) throws TXLibExceptions.AbortException {
+        LocalStorage localStorage = domain.localStorage();
+        if (!localStorage.TX) {
+            domain.beginSingleton(localStorage);
+            try {
+                return removeSingleton(key);
+            } finally {
+                domain.endSingleton(localStorage);
+            }
+        }
+        return removeTX(key, localStorage);
+    }
+
+    /**
+     * @see LinkedList#containsKey(Integer)
+     */
+    public boolean containsKey(Integer key) throws TXLibExceptions.AbortException {
+        if (key == null)
+            throw new NullPointerException();
+        return containsKey(key.intValue());
+    }
+
+    /**
+     * @see LinkedList#containsKey(int)
+     */
+    public boolean containsKey(int key) throws TXLibExceptions.AbortException {
+        return get(key) != null;
+    }
+
+    /**
+     * @see LinkedList#get(Integer)
+     */
+    public Object get(Integer key) throws TXLibExceptions.AbortException {
+        if (key == null)
+            throw new NullPointerException();
+        return get(key.intValue());
+    }
+
+    /**
+     * @see LinkedList#get(int)
+     */
+    public Object get(int key) throws TXLibExceptions.AbortException {
+        LocalStorage localStorage = domain.localStorage();
+        if (!localStorage.TX) {
+            return getSingleton(key);
+        }
+        return getTX(key, localStorage);
+    }
+
+    /**
+     * @effects Associates each key with the value at the same position, as put() would
+     * 			one key after the other, in increasing order of keys.
+     *
+     * @throws  NullPointerException if a value is null
+     * @throws  IllegalArgumentException if there are not as many values as keys
+     */
+    public void putAll(int[] keys, Object[] vals) throws TXLibExceptions.AbortException {
+        if (keys.length != vals.length)
+            throw new IllegalArgumentException("not as many values as keys");
+        for (Object val : vals) {
+            if (val == null)
+                throw new NullPointerException();
+        }
+        for (long entry : LinkedList.sortBatch(keys)) {
+            put(LinkedList.batchKey(entry), vals[LinkedList.batchPos(entry)]);
+        }
+    }
+
+    /**
+     * @effects Removes the mappings for the keys that are present, as remove() would
+     * 			one key after the other, in increasing order of keys.
+     *
+     * @return  The number of mappings removed
+     */
+    public int removeAll(int[] keys) throws TXLibExceptions.AbortException {
+        int removed = 0;
+        for (long entry : LinkedList.sortBatch(keys)) {
+            if (remove(LinkedList.batchKey(entry)) != null) {
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    public RangeIterator<Object> iterator() throws TXLibExceptions.AbortException {
+        return iterator(true);
+    }
+
+    /**
+     * @return  A RangeIterator Object which supports range queries.
+     * 			An atomic one, in a transaction, reads and validates a node per chunk.
+     */
+    public RangeIterator<Object> iterator(boolean atomic) throws TXLibExceptions.AbortException {
+        LocalStorage localStorage = domain.localStorage();
+        if (!localStorage.TX || !atomic) {
+            return new SingletonIterator();
+        }
+        return new TXIterator();
+    }
+
+    // iterates over a chunk at a time, the subclasses load the next one
+    private abstract class ChunkIterator implements RangeIterator<Object> {
+
+        protected Chunk chunk = Chunk.EMPTY;
+        protected int pos = 0;
+        // the node after the chunk
+        protected LNode next = null;
+        protected int end = Integer.MAX_VALUE;
+
+        // loads the chunk holding key, from its first key not less than key
+        protected abstract void load(int key);
+
+        // loads the chunk of next
+        protected abstract void loadNext();
+
+        @Override
+        public void init() {
+            init_from(Integer.MIN_VALUE);
+        }
+
+        @Override
+        public void init_from(Object start) {
+            end = Integer.MAX_VALUE;
+            load((int) start);
+        }
+
+        @Override
+        public void init_upTo(Object end) {
+            init();
+            this.end = (int) end;
+        }
+
+        @Override
+        public void init_range(Object start, Object end) {
+            init_from(start);
+            this.end = (int) end;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (pos == chunk.size()) {
+                if (next == null || next.key > end) {
+                    return false;
+                }
+                loadNext();
+            }
+            return chunk.keys[pos] <= end;
+        }
+
+        @Override
+        public Object next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            return chunk.vals[pos++];
+        }
+
+    }
+
+    private class SingletonIterator extends ChunkIterator {
+
+        @Override
+        protected void load(int key) {
+            while (true) {
+                Chunk c = readChunkSingleton(findChunkSingleton(key), key, this);
+                if (c != null) {
+                    chunk = c;
+                    pos = c.from(key);
+                    return;
+                }
+            }
+        }
+
+        @Override
+        protected void loadNext() {
+            int key = next.key;
+            Chunk c = readChunkSingleton(next, key, this);
+            if (c == null) {
+                // merged into the chunk we just left, look for its keys there
+                load(key);
+                return;
+            }
+            chunk = c;
+            pos = 0;
+        }
+
+    }
+
+    private class TXIterator extends ChunkIterator {
+
+        private final LocalStorage localStorage = domain.localStorage();
+
+        private void read(LNode node) throws TXLibExceptions.AbortException {
+            chunk = getChunk(node, localStorage);
+            next = getNext(node, localStorage);
+        }
+
+        @Override
+        protected void load(int key) {
+            read(findChunk(key, localStorage));
+            pos = chunk.from(key);
+        }
+
+        @Override
+        protected void loadNext() {
+            LNode node = next;
+            localStorage.addToReadSet(node);
+            read(node);
+            pos = 0;
+        }
+
+    }
+
+    public int getSize() throws TXLibExceptions.AbortException {
+        int counter = 0;
+        RangeIterator<Object> iter = iterator();
+        iter.init();
+        while (iter.hasNext()) {
+            counter++;
+            iter.next();
+        }
+        return counter;
+    }
+
+}
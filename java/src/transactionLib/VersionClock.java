@@ -0,0 +1,229 @@
+package transactionLib;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The version clock of a TXDomain.
+ * Chosen with -Dtdsl.clock=gv1|gv4|gv5|striped (gv1 by default) or by the TXDomain constructor,
+ * and -Dtdsl.clock.stripes=n for the striped clock.
+ */
+public abstract class VersionClock {
+
+    /**
+     * @return the read version of a transaction beginning now
+     */
+    protected abstract long read();
+
+    /**
+     * Called by a committing transaction that holds its write locks.
+     *
+     * @return its write version, greater than its read version
+     */
+    protected abstract long tick(long readVersion);
+
+    /**
+     * Moves the clock past every version handed out so far,
+     * for instance when a snapshot begins (see Snapshots.begin()).
+     *
+     * @return a version read() can return from now on
+     */
+    protected abstract long advance();
+
+    /**
+     * Moves the clock to at least version, a version handed out
+     * without moving the clock (see TXDomain.singletonVersion()).
+     */
+    protected abstract void catchUp(long version);
+
+    // clocks only move forward
+    protected static void catchUp(AtomicLong GVC, long version) {
+        long current = GVC.get();
+        while (current < version && !GVC.compareAndSet(current, version)) {
+            current = GVC.get();
+        }
+    }
+
+    /**
+     * Called when a transaction aborts, maybe because of a version
+     * the clock does not show yet.
+     */
+    protected void onAbort() {
+    }
+
+    protected static VersionClock forName(String name) {
+        if (name.equals("gv1")) {
+            return new Global();
+        } else if (name.equals("gv4")) {
+            return new PassOnFailure();
+        } else if (name.equals("gv5")) {
+            return new Lazy();
+        } else if (name.equals("striped")) {
+            int stripes = Integer.getInteger("tdsl.clock.stripes", Runtime.getRuntime().availableProcessors());
+            return new Striped(stripes);
+        }
+        throw new IllegalArgumentException("unknown clock " + name);
+    }
+
+    /**
+     * Every commit increments a single counter (TL2's GV1).
+     */
+    public static class Global extends VersionClock {
+
+        private final AtomicLong GVC = new AtomicLong();
+
+        @Override
+        protected long read() {
+            return GVC.get();
+        }
+
+        @Override
+        protected long tick(long readVersion) {
+            return GVC.incrementAndGet();
+        }
+
+        @Override
+        protected long advance() {
+            return GVC.incrementAndGet();
+        }
+
+        @Override
+        protected void catchUp(long version) {
+            catchUp(GVC, version);
+        }
+
+    }
+
+    /**
+     * A commit whose increment fails uses the version of the commit
+     * that succeeded (TL2's GV4), so that concurrent commits share a version
+     * instead of retrying on the counter.
+     */
+    public static class PassOnFailure extends VersionClock {
+
+        private final AtomicLong GVC = new AtomicLong();
+
+        @Override
+        protected long read() {
+            return GVC.get();
+        }
+
+        @Override
+        protected long tick(long readVersion) {
+            long v = GVC.get();
+            if (GVC.compareAndSet(v, v + 1)) {
+                return v + 1;
+            }
+            // someone else moved the clock after we took our locks
+            return GVC.get();
+        }
+
+        @Override
+        protected long advance() {
+            return GVC.incrementAndGet();
+        }
+
+        @Override
+        protected void catchUp(long version) {
+            catchUp(GVC, version);
+        }
+
+    }
+
+    /**
+     * Commits do not write the counter, they take the version after it (TL2's GV5).
+     * Readers that meet the new versions then move the counter, aborting
+     * if they cannot extend their read version (see TX.extend()), and an abort moves it too.
+     * Commits stop contending on the counter at the price of these aborts.
+     */
+    public static class Lazy extends VersionClock {
+
+        private final AtomicLong GVC = new AtomicLong();
+
+        @Override
+        protected long read() {
+            return GVC.get();
+        }
+
+        @Override
+        protected long tick(long readVersion) {
+            return GVC.get() + 1;
+        }
+
+        @Override
+        protected long advance() {
+            return GVC.incrementAndGet();
+        }
+
+        @Override
+        protected void catchUp(long version) {
+            catchUp(GVC, version);
+        }
+
+        @Override
+        protected void onAbort() {
+            // once is enough: every version handed out so far is at most v + 1
+            long v = GVC.get();
+            GVC.compareAndSet(v, v + 1);
+        }
+
+    }
+
+    /**
+     * The clock is the maximum of per-thread stripes, each on its own cache line.
+     * A commit reads all stripes but only writes its own,
+     * so commits of different stripes do not contend on a line.
+     */
+    public static class Striped extends VersionClock {
+
+        private static final int PADDING = 16; // longs in 128 bytes
+
+        private final AtomicLongArray stripes;
+        private final int mask;
+
+        public Striped(int stripes) {
+            int n = 1;
+            while (n < stripes) {
+                n <<= 1;
+            }
+            this.stripes = new AtomicLongArray(n * PADDING);
+            this.mask = n - 1;
+        }
+
+        @Override
+        protected long read() {
+            long max = 0;
+            for (int i = 0; i < stripes.length(); i += PADDING) {
+                long v = stripes.get(i);
+                if (v > max) {
+                    max = v;
+                }
+            }
+            return max;
+        }
+
+        @Override
+        protected long tick(long readVersion) {
+            return advance();
+        }
+
+        @Override
+        protected long advance() {
+            long v = read() + 1;
+            catchUp(v);
+            return v;
+        }
+
+        @Override
+        protected void catchUp(long version) {
+            int i = ((int) Thread.currentThread().getId() & mask) * PADDING;
+            // stripes only move forward
+            long current = stripes.get(i);
+            while (current < version && !stripes.compareAndSet(i, current, version)) {
+                current = stripes.get(i);
+            }
+        }
+
+    }
+
+}
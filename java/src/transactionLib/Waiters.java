@@ -0,0 +1,162 @@
+package transactionLib;
+
+import java.lang.ref.WeakReference;
+import java.util.Map.Entry;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The threads of a domain whose transaction called Transaction.retry(),
+ * parked until what the transaction read changes.
+ * A retrying transaction leaves what it read in the slot of its thread:
+ * its read set, and for each queue whether it reached the end and whether it read the head.
+ * Commits and singleton writes wake every parked thread, and each one checks its slot
+ * and parks again if nothing in it changed, so the transaction runs again only once
+ * a node it read has a newer version (or is locked), or a queue it read moved.
+ * A declared read-only transaction keeps no read set, so it runs again on every wake.
+ * The nodes of a slot are pinned until its thread wakes, so that Epochs does not reuse them:
+ * a reused node starts over at version 0, and the change would be missed.
+ */
+public class Waiters {
+
+    protected static class Slot {
+        private final WeakReference<Thread> owner = new WeakReference<Thread>(Thread.currentThread());
+        private volatile boolean waiting = false;
+        private volatile boolean woken = false;
+        // the fields below are only used by the owner
+        private boolean watching = false;
+        private boolean watchAll = false;
+        private long readVersion = 0;
+        private LNode[] nodes = new LNode[16];
+        private int nodeCount = 0;
+        private Queue[] queues = new Queue[4];
+        private LocalQueue[] localQueues = new LocalQueue[4];
+        private int queueCount = 0;
+    }
+
+    private final CopyOnWriteArrayList<Slot> slots = new CopyOnWriteArrayList<Slot>();
+    // of the slots, so that wake() costs one read when no one waits
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    private Slot slot(LocalStorage localStorage) {
+        Slot slot = localStorage.waiterSlot;
+        if (slot == null) {
+            slot = new Slot();
+            slots.add(slot);
+            localStorage.waiterSlot = slot;
+        }
+        return slot;
+    }
+
+    /**
+     * Keeps what the running transaction read, before TX.end() clears it.
+     */
+    protected void watch(LocalStorage localStorage) {
+        Slot slot = slot(localStorage);
+        slot.watching = true;
+        slot.readVersion = localStorage.readVersion;
+        ReadSet readSet = localStorage.readSet;
+        if (slot.nodes.length < readSet.size()) {
+            slot.nodes = new LNode[readSet.size()];
+        }
+        for (int i = 0; i < readSet.size(); i++) {
+            slot.nodes[i] = readSet.get(i);
+            if (Epochs.enabled) {
+                // still in the epoch of the transaction, so none of them is reused yet
+                slot.nodes[i].pin();
+            }
+        }
+        slot.nodeCount = readSet.size();
+        slot.queueCount = 0;
+        for (Entry<Queue, LocalQueue> entry : localStorage.queueMap.entrySet()) {
+            if (slot.queueCount == slot.queues.length) {
+                Queue[] queues = new Queue[slot.queueCount * 2];
+                System.arraycopy(slot.queues, 0, queues, 0, slot.queueCount);
+                slot.queues = queues;
+                LocalQueue[] localQueues = new LocalQueue[slot.queueCount * 2];
+                System.arraycopy(slot.localQueues, 0, localQueues, 0, slot.queueCount);
+                slot.localQueues = localQueues;
+            }
+            slot.queues[slot.queueCount] = entry.getKey();
+            slot.localQueues[slot.queueCount] = entry.getValue();
+            slot.queueCount++;
+        }
+        // nothing to check: any commit may be the one awaited
+        slot.watchAll = localStorage.declaredReadOnly || (slot.nodeCount == 0 && slot.queueCount == 0);
+    }
+
+    /**
+     * @return true if the last transaction of the calling thread called watch()
+     */
+    protected boolean isWatching(LocalStorage localStorage) {
+        Slot slot = localStorage.waiterSlot;
+        return slot != null && slot.watching;
+    }
+
+    /**
+     * Parks the calling thread until what its transaction read changes,
+     * or until it is interrupted (the interrupt stays set).
+     */
+    protected void await(LocalStorage localStorage) {
+        Slot slot = localStorage.waiterSlot;
+        slot.woken = false;
+        slot.waiting = true;
+        waiting.incrementAndGet();
+        // checked after announcing, so a write we miss wakes us
+        while (!changed(slot) && !Thread.currentThread().isInterrupted()) {
+            LockSupport.park(this);
+        }
+        waiting.decrementAndGet();
+        slot.waiting = false;
+        for (int i = 0; i < slot.nodeCount; i++) {
+            if (Epochs.enabled) {
+                slot.nodes[i].unpin();
+            }
+            slot.nodes[i] = null;
+        }
+        for (int i = 0; i < slot.queueCount; i++) {
+            slot.queues[i] = null;
+            slot.localQueues[i] = null;
+        }
+        slot.nodeCount = 0;
+        slot.queueCount = 0;
+        slot.watching = false;
+    }
+
+    private boolean changed(Slot slot) {
+        if (slot.watchAll) {
+            return slot.woken;
+        }
+        for (int i = 0; i < slot.nodeCount; i++) {
+            LNode node = slot.nodes[i];
+            if (node.isLocked() || node.getVersion() > slot.readVersion) {
+                return true;
+            }
+        }
+        for (int i = 0; i < slot.queueCount; i++) {
+            if (slot.queues[i].changedSince(slot.localQueues[i], slot.readVersion)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Called once a write is seen (or its nodes are locked).
+     */
+    protected void wake() {
+        if (waiting.get() == 0) {
+            return;
+        }
+        for (Slot slot : slots) {
+            if (slot.waiting) {
+                slot.woken = true;
+                LockSupport.unpark(slot.owner.get());
+            } else if (slot.owner.get() == null) {
+                slots.remove(slot); // its thread is gone
+            }
+        }
+    }
+
+}
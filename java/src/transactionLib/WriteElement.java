@@ -5,5 +5,7 @@ public class WriteElement {
     protected LNode next = null;
     protected Object val = null; // used when changing value with put
     protected boolean deleted = false;
+    // older states the node keeps, set by the first write to it in the transaction
+    protected int historyLength = 0;
 
 }
@@ -0,0 +1,113 @@
+package transactionLib;
+
+import java.util.Arrays;
+
+/**
+ * The write set of a thread's transaction.
+ * Entries live in arrays that are reset at the end of every transaction,
+ * and the write elements themselves are reused from one transaction to the next.
+ */
+public class WriteSet {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private LNode[] nodes = new LNode[INITIAL_CAPACITY];
+    private WriteElement[] elements = new WriteElement[INITIAL_CAPACITY];
+    private int size = 0;
+    private final NodeTable lookup = new NodeTable();
+    // key << 32 | index of the entry, in the order commit locks the nodes
+    private long[] lockOrder = new long[INITIAL_CAPACITY];
+
+    // probed on every step of a transactional traversal
+    protected WriteElement get(LNode node) {
+        if (size == 0) {
+            return null;
+        }
+        int i = lookup.find(nodes, size, node);
+        return (i < 0) ? null : elements[i];
+    }
+
+    protected void put(LNode node, LNode next, Object val, boolean deleted, int historyLength) {
+        WriteElement we = get(node);
+        if (we == null) {
+            if (size == nodes.length) {
+                nodes = Arrays.copyOf(nodes, size * 2);
+                elements = Arrays.copyOf(elements, size * 2);
+            }
+            we = elements[size];
+            if (we == null) {
+                we = new WriteElement();
+                elements[size] = we;
+            }
+            we.historyLength = historyLength;
+            nodes[size] = node;
+            size++;
+            lookup.added(nodes, size);
+        }
+        we.next = next;
+        we.val = val;
+        we.deleted = deleted;
+    }
+
+    protected int size() {
+        return size;
+    }
+
+    protected LNode getNode(int i) {
+        return nodes[i];
+    }
+
+    protected WriteElement getElement(int i) {
+        return elements[i];
+    }
+
+    /**
+     * Orders the nodes for commit to lock: by key, then by identity hash
+     * for nodes of different lists with the same key.
+     * Transactions that lock in the same order never wait for each other in a cycle.
+     */
+    protected void sortForLocking() {
+        if (lockOrder.length < size) {
+            lockOrder = new long[nodes.length];
+        }
+        for (int i = 0; i < size; i++) {
+            lockOrder[i] = ((long) nodes[i].key << 32) | i;
+        }
+        if (size < 2) {
+            return;
+        }
+        Arrays.sort(lockOrder, 0, size);
+        // same keys end up next to each other, few enough to insertion sort
+        for (int i = 1; i < size; i++) {
+            long entry = lockOrder[i];
+            int hash = System.identityHashCode(nodes[(int) entry]);
+            int j = i;
+            while (j > 0 && (lockOrder[j - 1] >> 32) == (entry >> 32)
+                    && System.identityHashCode(nodes[(int) lockOrder[j - 1]]) > hash) {
+                lockOrder[j] = lockOrder[j - 1];
+                j--;
+            }
+            lockOrder[j] = entry;
+        }
+    }
+
+    // the i-th node to lock, once sortForLocking() was called
+    protected LNode getLockNode(int i) {
+        return nodes[(int) lockOrder[i]];
+    }
+
+    protected void clear() {
+        if (size == 0) {
+            return;
+        }
+        lookup.clear(size);
+        for (int i = 0; i < size; i++) {
+            nodes[i] = null;
+            // drop references so that the pool does not keep nodes and values alive
+            elements[i].next = null;
+            elements[i].val = null;
+        }
+        size = 0;
+    }
+
+}